@@ -0,0 +1,64 @@
+package sub_project.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sub_project.SubscriptionManager;
+
+/**
+ * Excel export and import. A sheet holds at most 1,048,576 rows, so larger customer counts are
+ * capped at {@link #MAX_ROWS}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class ExcelBenchmark {
+    static final int MAX_ROWS = 1_000_000;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int customers;
+
+    private Path dir;
+    private SubscriptionManager manager;
+    private String exported;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = SyntheticCustomers.seed(Math.min(customers, MAX_ROWS));
+        manager = new SubscriptionManager(dir.resolve("customers.csv").toString());
+        exported = dir.resolve("seed.xlsx").toString();
+        manager.exportToExcel(exported);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        manager.close();
+        SyntheticCustomers.delete(dir);
+    }
+
+    @Benchmark
+    public void exportToExcel() {
+        manager.exportToExcel(dir.resolve("export.xlsx").toString());
+    }
+
+    @Benchmark
+    public void importFromExcel() {
+        manager.importFromExcel(exported);
+    }
+}
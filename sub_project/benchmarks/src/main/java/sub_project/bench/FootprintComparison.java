@@ -0,0 +1,45 @@
+package sub_project.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import sub_project.SubscriptionManager;
+
+/**
+ * Loads the same synthetic customer base with each {@code subscription.store} mode and prints the
+ * retained heap per customer. Run with
+ * {@code java -cp target/benchmarks.jar sub_project.bench.FootprintComparison [customers]}.
+ */
+public class FootprintComparison {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path seeded = SyntheticCustomers.seed(count);
+        try {
+            for (String mode : new String[] {"indexed", "columnar"}) {
+                Path dir = SyntheticCustomers.copy(seeded);
+                System.setProperty("subscription.store", mode);
+                long before = usedHeap();
+                SubscriptionManager manager = new SubscriptionManager(dir.resolve("customers.csv").toString());
+                usedHeap();
+                manager.getCustomerById(1); // lets the store drop collected instances
+                long retained = usedHeap() - before;
+                System.out.printf("%-9s %,d customers: %,d MB retained, %d bytes/customer%n",
+                        mode, count, retained >> 20, retained / count);
+                manager.close();
+                manager = null;
+                SyntheticCustomers.delete(dir);
+            }
+        } finally {
+            SyntheticCustomers.delete(seeded);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,105 @@
+package sub_project.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sub_project.SubscriptionManager;
+
+/**
+ * Whole-dataset operations, timed one shot at a time: each iteration starts from a fresh copy of
+ * the seeded snapshot so deletes and rewrites of earlier iterations do not leak into the next.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class LifecycleBenchmark {
+    static final int DELETES_PER_SHOT = 10_000;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int customers;
+
+    private Path seeded;
+    private Path dir;
+    private SubscriptionManager manager;
+    private SubscriptionManager cold;
+
+    @Setup(Level.Trial)
+    public void seed() throws IOException {
+        seeded = SyntheticCustomers.seed(customers);
+        // The first start imports customers.csv and writes the binary snapshot every later start uses
+        new SubscriptionManager(seeded.resolve("customers.csv").toString()).close();
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        dir = SyntheticCustomers.copy(seeded);
+        manager = new SubscriptionManager(dir.resolve("customers.csv").toString());
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        if (cold != null) {
+            cold.close();
+            cold = null;
+        }
+        manager.close();
+        SyntheticCustomers.delete(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        SyntheticCustomers.delete(seeded);
+    }
+
+    /** Startup: map the binary snapshot, load every customer and build every index. */
+    @Benchmark
+    public SubscriptionManager loadCustomers() {
+        SubscriptionManager loaded = new SubscriptionManager(seeded.resolve("customers.csv").toString());
+        loaded.awaitLoaded();
+        loaded.close();
+        return loaded;
+    }
+
+    /** Startup until the first lookup by id is answered, which does not wait for the load. */
+    @Benchmark
+    public Object firstLookup() {
+        cold = new SubscriptionManager(seeded.resolve("customers.csv").toString());
+        return cold.getCustomerById(customers / 2);
+    }
+
+    /** Parsing customers.csv and swapping it in, the path a CSV import takes. */
+    @Benchmark
+    public void importCsv() {
+        manager.importFromCsv(seeded.resolve("customers.csv").toString());
+    }
+
+    /** Full snapshot rewrite, which is what a save costs once the log is compacted. */
+    @Benchmark
+    public void compactLog() {
+        manager.compactLog();
+    }
+
+    @Benchmark
+    public void deleteCustomer() {
+        int step = Math.max(1, customers / DELETES_PER_SHOT);
+        for (int id = 1; id <= customers; id += step) {
+            manager.deleteCustomer(id);
+        }
+    }
+}
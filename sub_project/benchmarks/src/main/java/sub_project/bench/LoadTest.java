@@ -0,0 +1,403 @@
+package sub_project.bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import sub_project.Customer;
+import sub_project.SubscriptionManager;
+import sub_project.SubscriptionType;
+
+/**
+ * End-to-end load test: seeds a synthetic customer base, then drives a mix of operations against one
+ * {@link SubscriptionManager} from concurrent workers and reports throughput, latency percentiles
+ * and allocation per operation type plus heap and GC use for the run. Run with
+ * {@code java -Xmx8g -cp target/benchmarks.jar sub_project.bench.LoadTest [customers]} and tune with
+ * <ul>
+ *   <li>{@code -Dload.workers} worker threads (default one per core);</li>
+ *   <li>{@code -Dload.mode} {@code closed}, each worker starting its next operation when the last
+ *       returns, or {@code open}, operations arriving at {@code -Dload.rate} per second in total
+ *       whether or not earlier ones have finished;</li>
+ *   <li>{@code -Dload.mix} relative weights, default
+ *       {@code lookup=70,update=12,add=8,cancel=4,report=5.99,export=0.01};</li>
+ *   <li>{@code -Dload.warmupSeconds} (default 10) and {@code -Dload.seconds} (default 60);</li>
+ *   <li>{@code -Dload.out} the JSON results file (default {@code loadtest-<time>.json}).</li>
+ * </ul>
+ * In open-loop mode latency is measured from when an operation was due, not when it started, so time
+ * spent queued behind slow operations is counted.
+ */
+public class LoadTest {
+    enum Op { LOOKUP, UPDATE, ADD, CANCEL, REPORT, EXPORT }
+
+    private static final String DEFAULT_MIX = "lookup=70,update=12,add=8,cancel=4,report=5.99,export=0.01";
+
+    private final int customers;
+    private final int workers = Integer.getInteger("load.workers", Runtime.getRuntime().availableProcessors());
+    private final boolean open = "open".equalsIgnoreCase(System.getProperty("load.mode", "closed"));
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "10000"));
+    private final String mix = System.getProperty("load.mix", DEFAULT_MIX);
+    private final long warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.warmupSeconds", 10L));
+    private final long measureNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.seconds", 60L));
+    private final double[] cumulative = new double[Op.values().length];
+
+    private Path dir;
+    private SubscriptionManager manager;
+    private final AtomicInteger added = new AtomicInteger();
+    private long measureStart;
+    private long measureEnd;
+
+    LoadTest(int customers) {
+        this.customers = customers;
+        double[] weights = new double[Op.values().length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            weights[Op.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)).ordinal()] = Double.parseDouble(pair[1].trim());
+        }
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("load.mix has no positive weight: " + mix);
+        }
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest(args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000);
+        test.run(Paths.get(System.getProperty("load.out",
+                "loadtest-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json")));
+    }
+
+    void run(Path out) throws Exception {
+        long seedStart = System.nanoTime();
+        dir = SyntheticCustomers.seed(customers);
+        manager = new SubscriptionManager(dir.resolve("customers.csv").toString());
+        manager.awaitLoaded();
+        for (SubscriptionType type : SubscriptionType.values()) {
+            manager.setSubscriptionLimit(type, Integer.MAX_VALUE);
+        }
+        manager.setCustomerSignupLimit(Integer.MAX_VALUE);
+        System.out.printf("Seeded and loaded %,d customers in %d ms; %d workers, %s loop%s, %ds warmup + %ds%n",
+                customers, (System.nanoTime() - seedStart) / 1_000_000, workers, open ? "open" : "closed",
+                open ? String.format(Locale.ROOT, " at %.0f ops/s", rate) : "",
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(measureNanos));
+
+        Worker[] pool = new Worker[workers];
+        SplittableRandom seeds = new SplittableRandom(7);
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        measureEnd = measureStart + measureNanos;
+        for (int i = 0; i < workers; i++) {
+            pool[i] = new Worker(i, seeds.split(), start);
+            pool[i].start();
+        }
+
+        // Heap and GC are counted over the measured part only; heap use is sampled while it runs
+        sleepUntil(measureStart);
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long[] gcCounts = new long[collectors.size()];
+        long[] gcMillis = new long[collectors.size()];
+        for (int i = 0; i < collectors.size(); i++) {
+            gcCounts[i] = collectors.get(i).getCollectionCount();
+            gcMillis[i] = collectors.get(i).getCollectionTime();
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long peakHeap = 0;
+        long nextProgress = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < measureEnd) {
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            if (System.nanoTime() >= nextProgress) {
+                long done = 0;
+                for (Worker worker : pool) {
+                    done += worker.completed;
+                }
+                System.out.printf("  %ds: %,d operations%n", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - measureStart), done);
+                nextProgress += TimeUnit.SECONDS.toNanos(10);
+            }
+            Thread.sleep(100);
+        }
+        for (Worker worker : pool) {
+            worker.join();
+        }
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+        Stats[] totals = new Stats[Op.values().length];
+        for (Op op : Op.values()) {
+            totals[op.ordinal()] = new Stats();
+            for (Worker worker : pool) {
+                totals[op.ordinal()].add(worker.stats[op.ordinal()]);
+            }
+        }
+        double seconds = measureNanos / 1e9;
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"customers\": ").append(customers).append(",\n");
+        json.append("  \"workers\": ").append(workers).append(",\n");
+        json.append("  \"mode\": \"").append(open ? "open" : "closed").append("\",\n");
+        if (open) {
+            json.append("  \"rate\": ").append(rate).append(",\n");
+        }
+        json.append("  \"mix\": \"").append(mix).append("\",\n");
+        json.append("  \"seconds\": ").append(seconds).append(",\n");
+        json.append("  \"store\": \"").append(System.getProperty("subscription.store", "indexed")).append("\",\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"cores\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"operations\": {");
+
+        System.out.printf("%n%-8s %10s %10s %10s %10s %10s %10s %10s %12s%n",
+                "op", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "errors", "alloc B/op");
+        String separator = "\n";
+        long totalCount = 0;
+        for (Op op : Op.values()) {
+            Stats stats = totals[op.ordinal()];
+            totalCount += stats.histogram.count;
+            if (stats.histogram.count == 0) {
+                continue;
+            }
+            double perSecond = stats.histogram.count / seconds;
+            long allocPerOp = stats.allocatedBytes / stats.histogram.count;
+            System.out.printf("%-8s %,10d %,10.0f %10.1f %10.1f %10.1f %10.1f %,10d %,12d%n",
+                    op.name().toLowerCase(Locale.ROOT), stats.histogram.count, perSecond,
+                    stats.histogram.percentile(0.50) / 1e3, stats.histogram.percentile(0.99) / 1e3,
+                    stats.histogram.percentile(0.999) / 1e3, stats.histogram.max / 1e3, stats.errors, allocPerOp);
+            json.append(separator).append("    \"").append(op.name().toLowerCase(Locale.ROOT)).append("\": {")
+                    .append("\"count\": ").append(stats.histogram.count)
+                    .append(", \"errors\": ").append(stats.errors)
+                    .append(", \"opsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", perSecond))
+                    .append(", \"meanNanos\": ").append(stats.histogram.totalNanos / stats.histogram.count)
+                    .append(", \"p50Nanos\": ").append(stats.histogram.percentile(0.50))
+                    .append(", \"p90Nanos\": ").append(stats.histogram.percentile(0.90))
+                    .append(", \"p99Nanos\": ").append(stats.histogram.percentile(0.99))
+                    .append(", \"p999Nanos\": ").append(stats.histogram.percentile(0.999))
+                    .append(", \"maxNanos\": ").append(stats.histogram.max)
+                    .append(", \"allocatedBytesPerOp\": ").append(allocPerOp).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        System.out.printf("%-8s %,10d %,10.0f%n", "total", totalCount, totalCount / seconds);
+        json.append("  \"opsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", totalCount / seconds)).append(",\n");
+
+        json.append("  \"gc\": [");
+        separator = "\n";
+        for (int i = 0; i < collectors.size(); i++) {
+            long count = collectors.get(i).getCollectionCount() - gcCounts[i];
+            long millis = collectors.get(i).getCollectionTime() - gcMillis[i];
+            System.out.printf("GC %s: %d collections, %d ms%n", collectors.get(i).getName(), count, millis);
+            json.append(separator).append("    {\"name\": \"").append(collectors.get(i).getName())
+                    .append("\", \"collections\": ").append(count).append(", \"millis\": ").append(millis).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+        long maxHeap = memory.getHeapMemoryUsage().getMax();
+        System.out.printf("Heap: peak %,d MB, after %,d MB, max %,d MB%n", peakHeap >> 20, heapAfter >> 20, maxHeap >> 20);
+        json.append("  \"heap\": {\"peakBytes\": ").append(peakHeap).append(", \"afterBytes\": ").append(heapAfter)
+                .append(", \"maxBytes\": ").append(maxHeap).append("}\n}\n");
+
+        Files.write(out, json.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out.toAbsolutePath());
+        manager.close();
+        SyntheticCustomers.delete(dir);
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private class Worker extends Thread {
+        private final int index;
+        private final SplittableRandom random;
+        private final long start;
+        private final Stats[] stats = new Stats[Op.values().length];
+        private final long today = LocalDate.now().toEpochDay();
+        private final Path exportFile;
+        private volatile long completed;
+
+        Worker(int index, SplittableRandom random, long start) {
+            super("load-" + index);
+            setDaemon(true);
+            this.index = index;
+            this.random = random;
+            this.start = start;
+            this.exportFile = dir.resolve("export-" + index + ".csv");
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = new Stats();
+            }
+        }
+
+        @Override
+        public void run() {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            // Open loop: this worker's share of the arrivals, evenly spaced and offset from the other workers'
+            long interval = open ? Math.max(1, (long) (workers * 1e9 / rate)) : 0;
+            long due = start + interval * index / workers;
+            while (true) {
+                if (open) {
+                    sleepUntil(due);
+                } else {
+                    due = System.nanoTime();
+                }
+                if (due >= measureEnd) {
+                    return;
+                }
+                Op op = pick();
+                long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                boolean failed = false;
+                try {
+                    execute(op);
+                } catch (RuntimeException | IOException e) {
+                    failed = true;
+                }
+                long end = System.nanoTime();
+                if (due >= measureStart) {
+                    Stats s = stats[op.ordinal()];
+                    s.histogram.record(end - due);
+                    s.allocatedBytes += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                    if (failed) {
+                        s.errors++;
+                    }
+                    completed++;
+                }
+                due += interval;
+            }
+        }
+
+        private Op pick() {
+            double roll = random.nextDouble();
+            for (Op op : Op.values()) {
+                if (roll < cumulative[op.ordinal()]) {
+                    return op;
+                }
+            }
+            return Op.LOOKUP;
+        }
+
+        private int anyId() {
+            return random.nextInt(1, customers + added.get() + 1);
+        }
+
+        // Each operation as the console menu performs it
+        private void execute(Op op) throws IOException {
+            if (op == Op.LOOKUP) {
+                manager.getCustomerById(anyId());
+            } else if (op == Op.UPDATE) {
+                Customer customer = manager.getCustomerById(anyId());
+                if (customer != null) {
+                    customer.setRenewalDate(SyntheticCustomers.renewalDate(random, customer.getSubscriptionType(), today));
+                }
+            } else if (op == Op.ADD) {
+                SubscriptionType type = SyntheticCustomers.type(random);
+                int n = added.incrementAndGet();
+                manager.addCustomer("load" + n, "load" + n + "@example.com", type,
+                        SyntheticCustomers.renewalDate(random, type, today), SyntheticCustomers.paymentMethod(random, type));
+            } else if (op == Op.CANCEL) {
+                Customer customer = manager.getCustomerById(anyId());
+                if (customer != null) {
+                    customer.setCanceled(true);
+                }
+            } else if (op == Op.REPORT) {
+                manager.getReport();
+            } else {
+                manager.exportToCsv(exportFile.toString());
+            }
+        }
+    }
+
+    /** One worker's measurements for one operation type; merged once the workers are done. */
+    private static final class Stats {
+        final Histogram histogram = new Histogram();
+        long allocatedBytes;
+        long errors;
+
+        void add(Stats other) {
+            histogram.add(other.histogram);
+            allocatedBytes += other.allocatedBytes;
+            errors += other.errors;
+        }
+    }
+
+    /**
+     * Latency histogram in nanoseconds with sixteen log-linear buckets per power of two, so a
+     * percentile is reported at most 6.25% above the true value. Not thread-safe: each worker
+     * records into its own.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        final long[] counts = new long[64 * SUB_BUCKETS];
+        long count;
+        long totalNanos;
+        long max;
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            counts[bucket(nanos)]++;
+            count++;
+            totalNanos += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            totalNanos += other.totalNanos;
+            max = Math.max(max, other.max);
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Largest value that lands in the bucket
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        /** Upper bound of the bucket holding the {@code quantile} (0..1) value, capped at the maximum. */
+        long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package sub_project.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sub_project.Customer;
+import sub_project.PaymentMethod;
+import sub_project.SubscriptionManager;
+import sub_project.SubscriptionReport;
+import sub_project.SubscriptionType;
+
+/**
+ * Per-operation throughput of the SubscriptionManager hot paths over a pre-seeded customer base.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class ManagerBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int customers;
+
+    private Path dir;
+    private SubscriptionManager manager;
+    private LocalDate renewal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = SyntheticCustomers.seed(customers);
+        manager = new SubscriptionManager(dir.resolve("customers.csv").toString());
+        for (SubscriptionType type : SubscriptionType.values()) {
+            manager.setSubscriptionLimit(type, Integer.MAX_VALUE);
+        }
+        manager.setCustomerSignupLimit(Integer.MAX_VALUE); // addCustomer reuses one email
+        renewal = LocalDate.now().plusMonths(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        manager.close();
+        SyntheticCustomers.delete(dir);
+    }
+
+    @Benchmark
+    public void addCustomer() {
+        manager.addCustomer("bench", "bench@example.com", SubscriptionType.PREMIUM, renewal, PaymentMethod.CARD);
+    }
+
+    @Benchmark
+    public Customer getCustomerById() {
+        return manager.getCustomerById(ThreadLocalRandom.current().nextInt(1, customers + 1));
+    }
+
+    /** One field update made durable; Main.updateCustomer leaves the write to the background writer. */
+    @Benchmark
+    public void saveCustomers() {
+        Customer customer = manager.getCustomerById(ThreadLocalRandom.current().nextInt(1, customers + 1));
+        if (customer != null) {
+            customer.setName("renamed");
+        }
+        manager.awaitDurable();
+    }
+
+    /** The numbers behind generateReports(), without printing them. */
+    @Benchmark
+    public SubscriptionReport generateReports() {
+        return manager.getReport();
+    }
+}
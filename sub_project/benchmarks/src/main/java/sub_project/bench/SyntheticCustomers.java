@@ -0,0 +1,87 @@
+package sub_project.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+import sub_project.PaymentMethod;
+import sub_project.SubscriptionType;
+
+/**
+ * Writes customers.csv snapshots with deterministic synthetic customers for the benchmarks. The
+ * spread follows production: half the customers on FREE, 35% PREMIUM and 15% GOLD; paid plans pay by
+ * card 70%, PayPal 25% and cash 5% of the time; paid renewals fall within the next billing month,
+ * free ones anywhere in the next year; one in ten is canceled.
+ */
+final class SyntheticCustomers {
+    static final String HEADER = "id,name,email,subscriptionType,renewalDate,canceled,paymentMethod";
+
+    private SyntheticCustomers() {
+    }
+
+    /** Creates a fresh temp directory holding a customers.csv with {@code count} customers. */
+    static Path seed(int count) throws IOException {
+        Path dir = Files.createTempDirectory("subscription-bench");
+        write(dir.resolve("customers.csv"), count);
+        return dir;
+    }
+
+    static void write(Path file, int count) throws IOException {
+        SplittableRandom random = new SplittableRandom(42);
+        long today = LocalDate.now().toEpochDay();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (int id = 1; id <= count; id++) {
+                SubscriptionType type = type(random);
+                writer.write(id + ",customer" + id + ",customer" + id + "@example.com," + type + ","
+                        + renewalDate(random, type, today) + "," + (random.nextInt(10) == 0) + "," + paymentMethod(random, type));
+                writer.newLine();
+            }
+        }
+    }
+
+    static SubscriptionType type(SplittableRandom random) {
+        int roll = random.nextInt(100);
+        return roll < 50 ? SubscriptionType.FREE : roll < 85 ? SubscriptionType.PREMIUM : SubscriptionType.GOLD;
+    }
+
+    /** Null for FREE, as the manager requires. */
+    static PaymentMethod paymentMethod(SplittableRandom random, SubscriptionType type) {
+        if (type == SubscriptionType.FREE) {
+            return null;
+        }
+        int roll = random.nextInt(100);
+        return roll < 70 ? PaymentMethod.CARD : roll < 95 ? PaymentMethod.PAYPAL : PaymentMethod.CASH;
+    }
+
+    static LocalDate renewalDate(SplittableRandom random, SubscriptionType type, long todayEpochDay) {
+        int horizon = type == SubscriptionType.FREE ? 365 : 31 * type.getDurationInMonths();
+        return LocalDate.ofEpochDay(todayEpochDay + random.nextInt(1, horizon + 1));
+    }
+
+    /** Copies the seeded files into a new directory so a benchmark can mutate them freely. */
+    static Path copy(Path seeded) throws IOException {
+        Path dir = Files.createTempDirectory("subscription-bench");
+        for (String name : new String[] {"customers.csv", "customers.csv.snap", "customers.csv.wal"}) {
+            if (Files.exists(seeded.resolve(name))) {
+                Files.copy(seeded.resolve(name), dir.resolve(name));
+            }
+        }
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
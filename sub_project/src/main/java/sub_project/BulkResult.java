@@ -0,0 +1,63 @@
+package sub_project;
+
+/**
+ * Per-item outcome of a bulk operation, in the order the items were given.
+ */
+public class BulkResult {
+    public enum Outcome {
+        ACCEPTED,
+        REJECTED_BY_QUOTA,
+        INVALID,
+        NOT_FOUND
+    }
+
+    private final Outcome[] outcomes;
+    private final int[] ids;
+    private final String[] reasons;
+
+    BulkResult(int size) {
+        outcomes = new Outcome[size];
+        ids = new int[size];
+        reasons = new String[size];
+    }
+
+    void set(int index, Outcome outcome, int id, String reason) {
+        outcomes[index] = outcome;
+        ids[index] = id;
+        reasons[index] = reason;
+    }
+
+    public int size() {
+        return outcomes.length;
+    }
+
+    public Outcome getOutcome(int index) {
+        return outcomes[index];
+    }
+
+    /** Id of the customer the item refers to; for additions the new id, or -1 if not accepted. */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /** Why the item was not accepted; null for accepted items. */
+    public String getReason(int index) {
+        return reasons[index];
+    }
+
+    public int count(Outcome outcome) {
+        int count = 0;
+        for (Outcome o : outcomes) {
+            if (o == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult{accepted=" + count(Outcome.ACCEPTED) + ", rejectedByQuota=" + count(Outcome.REJECTED_BY_QUOTA)
+                + ", invalid=" + count(Outcome.INVALID) + ", notFound=" + count(Outcome.NOT_FOUND) + "}";
+    }
+}
@@ -0,0 +1,549 @@
+package sub_project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Change-data-capture stream: every mutation of the primary as an ordered, sequence-numbered event in
+ * local segment files, {@code fileName.cdc.<first sequence>}, for {@link SubscriptionReplica}s to tail.
+ * Records are framed like the write-ahead log, {@code [length][payload][crc32]}, with the payload
+ * {@code long sequence, long epochMillis, byte op} followed by the log's encoding of the change.
+ *
+ * <p>Every segment starts with a base: a reset, an add for every customer and a base-end marker, so a
+ * reader can start from any segment. A new segment is started at startup, when an import replaces
+ * all customers and once the changes after the base exceed {@code subscription.cdc.segmentBytes}; only the
+ * newest {@code subscription.cdc.keepSegments} are kept. The base is written without the lock, so
+ * appends go on meanwhile: their records are held and numbered once the base is written, keeping
+ * sequences consecutive. Customers are read as {@link PersistenceEngine#compact} reads them, so
+ * changes racing the base are repeated after it.
+ *
+ * <p>Appends go to a buffer that a background thread writes every {@code subscription.cdc.flushMs}.
+ * Segments are not forced to disk: after a crash the primary starts a new segment with a fresh base,
+ * which readers apply in full.
+ */
+class ChangeStream implements AutoCloseable {
+    static final int MAGIC = 0x53554243; // "SUBC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final byte OP_RESET = 4;
+    static final byte OP_BASE_END = 5;
+
+    /** Receives the records of a segment in order. */
+    interface Handler extends WriteAheadLog.Handler {
+        /**
+         * Starts a base; {@code continues} is set when it repeats the state the previous segment
+         * ended in, so a reader that read that segment to the end can skip the base.
+         */
+        void reset(boolean continues);
+
+        void baseEnd();
+    }
+
+    /** A segment file as described by its header. */
+    static final class Segment {
+        final File file;
+        final long streamId;
+        final long firstSequence;
+
+        Segment(File file, long streamId, long firstSequence) {
+            this.file = file;
+            this.streamId = streamId;
+            this.firstSequence = firstSequence;
+        }
+    }
+
+    // One record's payload
+    private static final class RecordOut extends DataOutputStream {
+        RecordOut() {
+            super(new ByteArrayOutputStream(64));
+        }
+
+        byte[] toByteArray() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    private final String fileName;
+    private final Supplier<Iterable<Customer>> state;
+    private final long segmentBytes = Long.getLong("subscription.cdc.segmentBytes", 64L * 1024 * 1024);
+    private final int keepSegments = Math.max(1, Integer.getInteger("subscription.cdc.keepSegments", 2));
+    private final long flushMs = Long.getLong("subscription.cdc.flushMs", 20L);
+
+    // Serializes starting segments; always taken before lock
+    private final ReentrantLock segmentLock = new ReentrantLock();
+    // Guards everything below; a lock rather than a monitor so that waiting virtual threads are not pinned
+    private final ReentrantLock lock = new ReentrantLock();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(8192);
+    private List<byte[]> held; // while a base is written, payloads of the records appended meanwhile, not numbered yet
+    private FileChannel channel; // null while a base is written, or after starting a segment failed
+    private long written; // bytes in the current segment file
+    private long baseBytes; // of those, the header and base
+    private long streamId;
+    private long sequence; // of the last record numbered
+    private boolean closed;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * @param state current customers, read for the base of every new segment. Writers must apply a
+     *              change to the store before publishing it, as for {@link PersistenceEngine}.
+     */
+    ChangeStream(String fileName, Supplier<Iterable<Customer>> state) {
+        this.fileName = fileName;
+        this.state = state;
+    }
+
+    /** Continues the sequence of the segments on disk, or starts a new stream, with a new segment. */
+    void open() throws IOException {
+        lock.lock();
+        try {
+            List<Segment> segments = segments(fileName);
+            if (segments.isEmpty()) {
+                streamId = ThreadLocalRandom.current().nextLong();
+            } else {
+                Segment last = segments.get(segments.size() - 1);
+                streamId = last.streamId;
+                try (Reader reader = new Reader(last)) {
+                    try {
+                        reader.poll(Long.MAX_VALUE, null);
+                    } catch (IOException e) {
+                        EventLog.warn("change_segment_damaged", "file", last.file.getName(), "error", e.getMessage());
+                    }
+                    sequence = reader.sequence();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        startSegment(false);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "change-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMs, Math.max(1, flushMs), TimeUnit.MILLISECONDS);
+    }
+
+    long sequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void added(Customer customer) {
+        lock.lock();
+        try {
+            RecordOut out = begin(WriteAheadLog.OP_ADD);
+            WriteAheadLog.writeCustomer(out, customer);
+            end(out);
+        } catch (IOException e) {
+            EventLog.error("change_stream_failed", "error", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void updated(Customer customer, CustomerField field) {
+        lock.lock();
+        try {
+            RecordOut out = begin(WriteAheadLog.OP_UPDATE);
+            out.writeInt(customer.getId());
+            out.writeByte(field.ordinal());
+            WriteAheadLog.writeValue(out, field, customer.get(field));
+            end(out);
+        } catch (IOException e) {
+            EventLog.error("change_stream_failed", "error", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void deleted(int id) {
+        lock.lock();
+        try {
+            RecordOut out = begin(WriteAheadLog.OP_DELETE);
+            out.writeInt(id);
+            end(out);
+        } catch (IOException e) {
+            EventLog.error("change_stream_failed", "error", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Starts a new segment whose base is the current customers, after every customer was replaced. */
+    void replaced() {
+        try {
+            startSegment(false);
+        } catch (IOException e) {
+            EventLog.error("change_stream_failed", "error", e.getMessage());
+        }
+    }
+
+    // Caller holds the lock; while a base is written the sequence is filled in when the record is released
+    private RecordOut begin(byte op) throws IOException {
+        return record(held != null ? 0 : ++sequence, op);
+    }
+
+    // Caller holds the lock
+    private void end(RecordOut record) throws IOException {
+        if (held != null) {
+            held.add(record.toByteArray());
+        } else {
+            frame(pending, record.toByteArray());
+        }
+    }
+
+    private static RecordOut record(long sequence, byte op) throws IOException {
+        RecordOut out = new RecordOut();
+        out.writeLong(sequence);
+        out.writeLong(System.currentTimeMillis());
+        out.writeByte(op);
+        return out;
+    }
+
+    private static void frame(ByteArrayOutputStream to, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream out = new DataOutputStream(to);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static long write(FileChannel channel, ByteArrayOutputStream bytes, long at) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long end = at;
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+        bytes.reset();
+        return end;
+    }
+
+    // Caller holds the lock
+    private void writePending() throws IOException {
+        if (channel != null && pending.size() > 0) {
+            written = write(channel, pending, written);
+        }
+    }
+
+    /** Writes everything appended so far to the current segment. */
+    void flush() throws IOException {
+        boolean start;
+        boolean continues;
+        lock.lock();
+        try {
+            writePending();
+            // A segment that failed to start is retried; its records are lost, which readers see as a gap
+            start = !closed && held == null && (channel == null || written - baseBytes >= segmentBytes);
+            continues = channel != null;
+        } finally {
+            lock.unlock();
+        }
+        if (start) {
+            startSegment(continues);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            EventLog.error("change_stream_failed", "error", e.getMessage());
+        }
+    }
+
+    /**
+     * Finishes the current segment, then writes the header and base of the next without holding the
+     * lock. Records appended meanwhile are held and numbered after the base once it is in place.
+     */
+    private void startSegment(boolean continues) throws IOException {
+        segmentLock.lock();
+        try {
+            long first;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                if (channel != null) {
+                    writePending();
+                    channel.close();
+                    channel = null;
+                }
+                pending.reset(); // left over only when the last segment failed; covered by the new base
+                first = sequence + 1;
+                held = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            File file = new File(fileName + ".cdc." + first);
+            FileChannel next = null;
+            long size = 0;
+            long last = first - 1;
+            int customers = 0;
+            try {
+                next = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                ByteArrayOutputStream base = new ByteArrayOutputStream(1 << 16);
+                DataOutputStream header = new DataOutputStream(base);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeLong(streamId);
+                header.writeLong(first);
+                RecordOut out = record(++last, OP_RESET);
+                out.writeBoolean(continues);
+                frame(base, out.toByteArray());
+                for (Customer customer : state.get()) {
+                    out = record(++last, WriteAheadLog.OP_ADD);
+                    WriteAheadLog.writeCustomer(out, customer);
+                    frame(base, out.toByteArray());
+                    if (base.size() >= 1 << 20) {
+                        size = write(next, base, size);
+                    }
+                    customers++;
+                }
+                frame(base, record(++last, OP_BASE_END).toByteArray());
+                size = write(next, base, size);
+            } catch (IOException e) {
+                if (next != null) {
+                    next.close();
+                }
+                next = null;
+                throw e;
+            } finally {
+                release(next, size, last);
+            }
+            EventLog.info("change_segment_started", "file", file.getName(), "sequence", first, "base", customers);
+            deleteOldSegments();
+        } finally {
+            segmentLock.unlock();
+        }
+    }
+
+    // Installs the new segment, or none when its base failed, and numbers the records held meanwhile
+    private void release(FileChannel next, long size, long last) throws IOException {
+        lock.lock();
+        try {
+            channel = next;
+            written = baseBytes = size;
+            if (next != null) {
+                sequence = last;
+            }
+            List<byte[]> changes = held;
+            held = null;
+            for (byte[] payload : changes) {
+                ByteBuffer.wrap(payload).putLong(0, ++sequence);
+                frame(pending, payload);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deleteOldSegments() {
+        List<Segment> segments = segments(fileName);
+        for (int i = 0; i < segments.size() - keepSegments; i++) {
+            if (!segments.get(i).file.delete()) {
+                EventLog.warn("file_delete_failed", "file", segments.get(i).file.getName());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        segmentLock.lock(); // lets a base being written finish
+        lock.lock();
+        try {
+            closed = true;
+            if (channel != null) {
+                writePending();
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            EventLog.error("change_stream_failed", "error", e.getMessage());
+        } finally {
+            lock.unlock();
+            segmentLock.unlock();
+        }
+    }
+
+    /** The segments of the stream next to {@code fileName}, oldest first; files with a bad header are left out. */
+    static List<Segment> segments(String fileName) {
+        File base = new File(fileName).getAbsoluteFile();
+        String prefix = base.getName() + ".cdc.";
+        File[] files = base.getParentFile().listFiles((dir, name) -> name.startsWith(prefix));
+        List<Segment> segments = new ArrayList<>();
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                    // keep reading
+                }
+                header.flip();
+                if (header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == VERSION) {
+                    segments.add(new Segment(file, header.getLong(), header.getLong()));
+                }
+            } catch (IOException e) {
+                // deleted meanwhile or unreadable; not a segment to read
+            }
+        }
+        segments.sort(Comparator.comparingLong(segment -> segment.firstSequence));
+        return segments;
+    }
+
+    /**
+     * Reads one segment from the start while it grows. Each {@link #poll} applies the complete
+     * records written since the last one and stops before an incomplete record at the end, which
+     * the writer has not finished yet.
+     */
+    static final class Reader implements AutoCloseable {
+        private final Segment segment;
+        private final FileChannel channel;
+        private ByteBuffer window = ByteBuffer.allocate(64 * 1024).limit(0);
+        private long windowStart;
+        private long position = HEADER_SIZE;
+        private long sequence;
+        private long timeMillis;
+
+        Reader(Segment segment) throws IOException {
+            this.segment = segment;
+            this.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+            this.sequence = segment.firstSequence - 1;
+        }
+
+        Segment segment() {
+            return segment;
+        }
+
+        /** Sequence of the last record read. */
+        long sequence() {
+            return sequence;
+        }
+
+        /** When the primary appended the last record read. */
+        long timeMillis() {
+            return timeMillis;
+        }
+
+        /** Bytes written to the segment and not read yet. */
+        long remaining() throws IOException {
+            return Math.max(0, channel.size() - position);
+        }
+
+        /**
+         * Hands every complete record not read yet to {@code handler}, at most {@code limit} of them;
+         * a null handler only reads. Returns the number of records read.
+         */
+        int poll(long limit, Handler handler) throws IOException {
+            int count = 0;
+            while (count < limit) {
+                long size = channel.size();
+                if (size - position < 4) {
+                    break;
+                }
+                int length = readInt(position);
+                if (length <= 0 || length > WriteAheadLog.MAX_RECORD) {
+                    throw new IOException("Corrupt change record at byte " + position + " of " + segment.file.getName());
+                }
+                if (size - position < length + 8L) {
+                    break; // still being written
+                }
+                ByteBuffer record = read(position + 4, length + 4);
+                byte[] payload = new byte[length];
+                record.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != record.getInt()) {
+                    throw new IOException("Corrupt change record at byte " + position + " of " + segment.file.getName());
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                long recordSequence = in.readLong();
+                long recordTime = in.readLong();
+                if (handler != null) {
+                    apply(in, handler);
+                }
+                sequence = recordSequence;
+                timeMillis = recordTime;
+                position += length + 8L;
+                count++;
+            }
+            return count;
+        }
+
+        private static void apply(DataInputStream in, Handler handler) throws IOException {
+            byte op = in.readByte();
+            if (op == WriteAheadLog.OP_ADD) {
+                handler.added(WriteAheadLog.readCustomer(in));
+            } else if (op == WriteAheadLog.OP_UPDATE) {
+                int id = in.readInt();
+                CustomerField field = CustomerField.values()[in.readByte()];
+                handler.updated(id, field, WriteAheadLog.readValue(in, field));
+            } else if (op == WriteAheadLog.OP_DELETE) {
+                handler.deleted(in.readInt());
+            } else if (op == OP_RESET) {
+                handler.reset(in.readBoolean());
+            } else if (op == OP_BASE_END) {
+                handler.baseEnd();
+            } else {
+                throw new IOException("Unknown change record type " + op);
+            }
+        }
+
+        private int readInt(long at) throws IOException {
+            return read(at, 4).getInt();
+        }
+
+        // The bytes at [at, at + length), served from a window that reads ahead as far as the file goes
+        private ByteBuffer read(long at, int length) throws IOException {
+            if (at < windowStart || at + length > windowStart + window.limit()) {
+                if (length > window.capacity()) {
+                    window = ByteBuffer.allocate(length);
+                }
+                window.clear();
+                while (window.position() < length) {
+                    if (channel.read(window, at + window.position()) < 0) {
+                        throw new IOException("Change record cut short in " + segment.file.getName());
+                    }
+                }
+                window.flip();
+                windowStart = at;
+            }
+            ByteBuffer bytes = window.duplicate();
+            bytes.position((int) (at - windowStart));
+            bytes.limit(bytes.position() + length);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
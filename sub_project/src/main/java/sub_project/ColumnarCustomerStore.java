@@ -0,0 +1,688 @@
+package sub_project;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Customer store for very large customer bases: every field lives in a primitive column
+ * ({@code int} ids and epoch-day renewal dates, {@code byte} enum ordinals, a bitset for canceled)
+ * and names and emails are UTF-8 bytes in a shared arena. {@link Customer} objects are created only
+ * when a caller asks for one; while a caller holds it, later lookups return the same instance, so
+ * its setters keep working as with {@link IndexedCustomerStore}.
+ *
+ * <p>Removed rows and replaced strings are left in place and reclaimed by {@link #compact()} once
+ * they make up half of the store. Rows are appended in id order, so iteration needs no sort unless
+ * an id lower than the current maximum was added. Limits: up to 2 GB of name and email bytes.
+ */
+class ColumnarCustomerStore implements CustomerStore {
+    private static final int INITIAL_ROWS = 1024;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int COMPACT_MIN = 4096;
+    private static final SubscriptionType[] TYPES = SubscriptionType.values();
+    private static final PaymentMethod[] METHODS = PaymentMethod.values();
+
+    private final StampedLock lock = new StampedLock();
+    private final IntIntHashMap rowById = new IntIntHashMap();
+
+    private int[] ids = new int[INITIAL_ROWS];
+    private int[] renewalDays = new int[INITIAL_ROWS];
+    private byte[] types = new byte[INITIAL_ROWS];
+    private byte[] methods = new byte[INITIAL_ROWS]; // -1 for no payment method
+    private long[] canceledBits = new long[INITIAL_ROWS / 64];
+    private long[] removedBits = new long[INITIAL_ROWS / 64];
+    private int[] nameOffsets = new int[INITIAL_ROWS];
+    private int[] nameLengths = new int[INITIAL_ROWS]; // -1 for null
+    private int[] emailOffsets = new int[INITIAL_ROWS];
+    private int[] emailLengths = new int[INITIAL_ROWS];
+    private int rows;
+    private int removedRows;
+    private boolean ordered = true;
+
+    private byte[] arena = new byte[64 * INITIAL_ROWS];
+    private int arenaUsed;
+    private int arenaGarbage;
+
+    // Open-addressing email index holding row + 1 per slot, 0 is free
+    private int[] emailSlots = new int[2 * INITIAL_ROWS];
+    private int emailCount;
+
+    private volatile int size;
+    private volatile int maxId;
+
+    private final ConcurrentHashMap<Integer, InstanceRef> instances = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Customer> collected = new ReferenceQueue<>();
+    private volatile CustomerListener listener;
+
+    private static class InstanceRef extends WeakReference<Customer> {
+        final int id;
+
+        InstanceRef(Customer customer, ReferenceQueue<Customer> queue) {
+            super(customer, queue);
+            this.id = customer.getId();
+        }
+    }
+
+    @Override
+    public int size() {
+        expunge();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    @Override
+    public int getMaxId() { return maxId; }
+
+    @Override
+    public Customer get(int id) {
+        expunge();
+        Customer cached = cached(id);
+        if (cached != null) {
+            return cached;
+        }
+        Customer loaded = read(id);
+        return loaded == null ? null : share(loaded);
+    }
+
+    @Override
+    public Customer add(Customer customer) {
+        Customer previous = null;
+        long stamp = lock.writeLock();
+        try {
+            int id = customer.getId();
+            int row = rowById.get(id);
+            if (row >= 0) {
+                previous = cached(id);
+                if (previous == null) {
+                    previous = materialize(row);
+                }
+                removeEmail(row);
+                arenaGarbage += Math.max(0, nameLengths[row]) + Math.max(0, emailLengths[row]);
+            } else {
+                row = rows++;
+                ensureRows(rows);
+                rowById.put(id, row);
+                if (id < maxId) {
+                    ordered = false;
+                }
+                size++;
+            }
+            writeRow(row, customer);
+            addEmail(row);
+            maxId = Math.max(maxId, id);
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        expunge();
+        instances.put(customer.getId(), new InstanceRef(customer, collected));
+        return previous;
+    }
+
+    @Override
+    public Customer remove(int id) {
+        Customer previous;
+        long stamp = lock.writeLock();
+        try {
+            int row = rowById.remove(id);
+            if (row < 0) {
+                return null;
+            }
+            previous = cached(id);
+            if (previous == null) {
+                previous = materialize(row);
+            }
+            removeEmail(row);
+            arenaGarbage += Math.max(0, nameLengths[row]) + Math.max(0, emailLengths[row]);
+            setBit(removedBits, row, true);
+            removedRows++;
+            size--;
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        instances.remove(id);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            rowById.clear();
+            rows = 0;
+            removedRows = 0;
+            ordered = true;
+            Arrays.fill(canceledBits, 0);
+            Arrays.fill(removedBits, 0);
+            arenaUsed = 0;
+            arenaGarbage = 0;
+            Arrays.fill(emailSlots, 0);
+            emailCount = 0;
+            size = 0;
+            maxId = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        instances.clear();
+    }
+
+    @Override
+    public Iterator<Customer> iterator() {
+        int[] order;
+        long stamp = lock.readLock();
+        try {
+            order = liveIds(-1, -1, false);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return new Iterator<Customer>() {
+            private int index;
+            private Customer next = advance();
+
+            private Customer advance() {
+                while (index < order.length) {
+                    Customer customer = get(order[index++]); // shared, so setters reach the columns
+                    if (customer != null) {
+                        return customer;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Customer next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Customer current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public List<Customer> values() {
+        List<Customer> list = new ArrayList<>(size);
+        for (Customer customer : this) {
+            list.add(customer);
+        }
+        return list;
+    }
+
+    @Override
+    public List<Customer> findByEmail(String email) {
+        if (email == null) {
+            return new ArrayList<>();
+        }
+        byte[] key = email.getBytes(StandardCharsets.UTF_8);
+        int[] matches;
+        long stamp = lock.readLock();
+        try {
+            IntList found = new IntList();
+            int mask = emailSlots.length - 1;
+            int slot = hash(key, 0, key.length) & mask;
+            while (emailSlots[slot] != 0) {
+                int row = emailSlots[slot] - 1;
+                if (emailLengths[row] == key.length && Arrays.equals(arena, emailOffsets[row], emailOffsets[row] + key.length, key, 0, key.length)) {
+                    found.add(ids[row]);
+                }
+                slot = (slot + 1) & mask;
+            }
+            matches = found.toSortedArray();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return load(matches);
+    }
+
+    @Override
+    public List<Customer> findByType(SubscriptionType type) {
+        return find(0, type.ordinal(), false);
+    }
+
+    @Override
+    public List<Customer> findByPaymentMethod(PaymentMethod paymentMethod) {
+        return find(1, paymentMethod.ordinal(), false);
+    }
+
+    @Override
+    public List<Customer> findCanceled() {
+        return find(-1, -1, true);
+    }
+
+    private List<Customer> find(int column, int ordinal, boolean canceledOnly) {
+        int[] matches;
+        long stamp = lock.readLock();
+        try {
+            matches = canceledOnly ? liveIds(-1, -1, true) : liveIds(column, ordinal, false);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return load(matches);
+    }
+
+    private List<Customer> load(int[] matches) {
+        List<Customer> list = new ArrayList<>(matches.length);
+        for (int id : matches) {
+            Customer customer = get(id);
+            if (customer != null) {
+                list.add(customer);
+            }
+        }
+        return list;
+    }
+
+    /** Filters type, payment method, canceled status and renewal range on the columns before creating any customer. */
+    @Override
+    public <R> R scan(CustomerQuery query, Function<Stream<Customer>, R> scan) {
+        int type = query.getType() == null ? -1 : query.getType().ordinal();
+        int method = query.getPaymentMethod() == null ? -1 : query.getPaymentMethod().ordinal();
+        Boolean canceled = query.getCanceled();
+        boolean dated = query.getRenewalFrom() != null || query.getRenewalTo() != null;
+        int fromDay = query.getRenewalFrom() == null ? Integer.MIN_VALUE + 1 : epochDay(query.getRenewalFrom());
+        int toDay = query.getRenewalTo() == null ? Integer.MAX_VALUE : epochDay(query.getRenewalTo());
+        long stamp = lock.readLock();
+        try {
+            return scan.apply(IntStream.range(0, rows)
+                    .filter(row -> !getBit(removedBits, row)
+                            && (type < 0 || types[row] == type)
+                            && (method < 0 || methods[row] == method)
+                            && (canceled == null || getBit(canceledBits, row) == canceled)
+                            && (!dated || (renewalDays[row] != NO_DATE && renewalDays[row] >= fromDay && renewalDays[row] <= toDay)))
+                    .mapToObj(row -> {
+                        Customer cached = cached(ids[row]);
+                        return cached != null ? cached : share(materialize(row));
+                    }));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Ids of live rows in id order, optionally only those whose type (column 0) or payment method
+    // (column 1) has the given ordinal, or only canceled ones. Caller holds a lock.
+    private int[] liveIds(int column, int ordinal, boolean canceledOnly) {
+        IntList found = new IntList();
+        for (int row = 0; row < rows; row++) {
+            if (getBit(removedBits, row)
+                    || (column == 0 && types[row] != ordinal)
+                    || (column == 1 && methods[row] != ordinal)
+                    || (canceledOnly && !getBit(canceledBits, row))) {
+                continue;
+            }
+            found.add(ids[row]);
+        }
+        return ordered ? found.toArray() : found.toSortedArray();
+    }
+
+    @Override
+    public void reindex(Customer customer, CustomerField field, Object oldValue) {
+        long stamp = lock.writeLock();
+        try {
+            int row = rowById.get(customer.getId());
+            Customer cached = cached(customer.getId());
+            if (row < 0 || (cached != null && cached != customer)) {
+                return; // removed, or a stale copy of a replaced customer
+            }
+            switch (field) {
+                case NAME:
+                    arenaGarbage += Math.max(0, nameLengths[row]);
+                    writeName(row, customer.getName());
+                    break;
+                case EMAIL:
+                    removeEmail(row);
+                    arenaGarbage += Math.max(0, emailLengths[row]);
+                    writeEmail(row, customer.getEmail());
+                    addEmail(row);
+                    break;
+                case SUBSCRIPTION_TYPE:
+                    types[row] = (byte) customer.getSubscriptionType().ordinal();
+                    break;
+                case RENEWAL_DATE:
+                    renewalDays[row] = epochDay(customer.getRenewalDate());
+                    break;
+                case CANCELED:
+                    setBit(canceledBits, row, customer.isCanceled());
+                    break;
+                case PAYMENT_METHOD:
+                    methods[row] = (byte) (customer.getPaymentMethod() == null ? -1 : customer.getPaymentMethod().ordinal());
+                    break;
+                default:
+                    break;
+            }
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void setListener(CustomerListener listener) {
+        this.listener = listener;
+        for (InstanceRef ref : instances.values()) {
+            Customer customer = ref.get();
+            if (customer != null) {
+                customer.setListener(listener);
+            }
+        }
+    }
+
+    private Customer cached(int id) {
+        InstanceRef ref = instances.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    // Publishes a freshly read customer, unless another caller already holds one for the same id
+    private Customer share(Customer loaded) {
+        while (true) {
+            InstanceRef existing = instances.putIfAbsent(loaded.getId(), new InstanceRef(loaded, collected));
+            if (existing == null) {
+                return loaded;
+            }
+            Customer other = existing.get();
+            if (other != null) {
+                return other;
+            }
+            instances.remove(loaded.getId(), existing);
+        }
+    }
+
+    // Drops entries whose customer was garbage collected, like WeakHashMap does on access
+    private void expunge() {
+        InstanceRef ref;
+        while ((ref = (InstanceRef) collected.poll()) != null) {
+            instances.remove(ref.id, ref);
+        }
+    }
+
+    // Reads a row optimistically; a read that raced with a writer is retried under the read lock
+    private Customer read(int id) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int row = rowById.get(id);
+                Customer customer = row < 0 || row >= rows ? null : materialize(row);
+                if (lock.validate(stamp)) {
+                    return customer;
+                }
+            } catch (RuntimeException e) {
+                // torn read, fall through to the locked path
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            int row = rowById.get(id);
+            return row < 0 ? null : materialize(row);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Customer materialize(int row) {
+        int day = renewalDays[row];
+        Customer customer = new Customer(ids[row],
+                string(nameOffsets[row], nameLengths[row]),
+                string(emailOffsets[row], emailLengths[row]),
+                TYPES[types[row]],
+                day == NO_DATE ? null : LocalDate.ofEpochDay(day),
+                getBit(canceledBits, row),
+                methods[row] < 0 ? null : METHODS[methods[row]]);
+        customer.setListener(listener);
+        return customer;
+    }
+
+    private String string(int offset, int length) {
+        return length < 0 ? null : new String(arena, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private void writeRow(int row, Customer customer) {
+        ids[row] = customer.getId();
+        renewalDays[row] = epochDay(customer.getRenewalDate());
+        types[row] = (byte) customer.getSubscriptionType().ordinal();
+        methods[row] = (byte) (customer.getPaymentMethod() == null ? -1 : customer.getPaymentMethod().ordinal());
+        setBit(canceledBits, row, customer.isCanceled());
+        setBit(removedBits, row, false);
+        writeName(row, customer.getName());
+        writeEmail(row, customer.getEmail());
+    }
+
+    private void writeName(int row, String name) {
+        nameLengths[row] = append(name);
+        nameOffsets[row] = arenaUsed - Math.max(0, nameLengths[row]);
+    }
+
+    private void writeEmail(int row, String email) {
+        emailLengths[row] = append(email);
+        emailOffsets[row] = arenaUsed - Math.max(0, emailLengths[row]);
+    }
+
+    // Appends the UTF-8 bytes of value to the arena; returns their length, -1 for null
+    private int append(String value) {
+        if (value == null) {
+            return -1;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureArena(arenaUsed + bytes.length);
+        System.arraycopy(bytes, 0, arena, arenaUsed, bytes.length);
+        arenaUsed += bytes.length;
+        return bytes.length;
+    }
+
+    private void ensureArena(long needed) {
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Columnar store is out of string space");
+        }
+        if (needed > arena.length) {
+            arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, arena.length + (arena.length >> 1))));
+        }
+    }
+
+    private void ensureRows(int needed) {
+        if (needed <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(needed, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        renewalDays = Arrays.copyOf(renewalDays, capacity);
+        types = Arrays.copyOf(types, capacity);
+        methods = Arrays.copyOf(methods, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        emailOffsets = Arrays.copyOf(emailOffsets, capacity);
+        emailLengths = Arrays.copyOf(emailLengths, capacity);
+        canceledBits = Arrays.copyOf(canceledBits, (capacity + 63) / 64);
+        removedBits = Arrays.copyOf(removedBits, (capacity + 63) / 64);
+    }
+
+    private void compactIfNeeded() {
+        if ((removedRows > COMPACT_MIN && removedRows > rows / 2)
+                || (arenaGarbage > COMPACT_MIN * 16 && arenaGarbage > arenaUsed / 2)) {
+            compact();
+        }
+    }
+
+    /** Drops removed rows and unreferenced string bytes, then rebuilds the id and email indexes. */
+    private void compact() {
+        byte[] oldArena = arena;
+        arena = new byte[Math.max(1024, arenaUsed - arenaGarbage + 1024)];
+        arenaUsed = 0;
+        arenaGarbage = 0;
+        int live = 0;
+        for (int row = 0; row < rows; row++) {
+            if (getBit(removedBits, row)) {
+                continue;
+            }
+            ids[live] = ids[row];
+            renewalDays[live] = renewalDays[row];
+            types[live] = types[row];
+            methods[live] = methods[row];
+            setBit(canceledBits, live, getBit(canceledBits, row));
+            setBit(removedBits, live, false);
+            nameLengths[live] = nameLengths[row];
+            nameOffsets[live] = copyString(oldArena, nameOffsets[row], nameLengths[row]);
+            emailLengths[live] = emailLengths[row];
+            emailOffsets[live] = copyString(oldArena, emailOffsets[row], emailLengths[row]);
+            live++;
+        }
+        for (int row = live; row < rows; row++) {
+            setBit(canceledBits, row, false);
+            setBit(removedBits, row, false);
+        }
+        rows = live;
+        removedRows = 0;
+        rowById.clear();
+        for (int row = 0; row < rows; row++) {
+            rowById.put(ids[row], row);
+        }
+        rebuildEmailIndex(emailSlots.length);
+    }
+
+    private int copyString(byte[] from, int offset, int length) {
+        if (length <= 0) {
+            return arenaUsed;
+        }
+        System.arraycopy(from, offset, arena, arenaUsed, length);
+        arenaUsed += length;
+        return arenaUsed - length;
+    }
+
+    private void addEmail(int row) {
+        if (emailLengths[row] < 0) {
+            return;
+        }
+        if (emailCount + 1 > emailSlots.length * 0.6) {
+            rebuildEmailIndex(emailSlots.length << 1); // picks up this row too
+            return;
+        }
+        insertEmail(row);
+        emailCount++;
+    }
+
+    private void insertEmail(int row) {
+        int mask = emailSlots.length - 1;
+        int slot = emailHash(row) & mask;
+        while (emailSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        emailSlots[slot] = row + 1;
+    }
+
+    private void removeEmail(int row) {
+        if (emailLengths[row] < 0) {
+            return;
+        }
+        int mask = emailSlots.length - 1;
+        int slot = emailHash(row) & mask;
+        while (emailSlots[slot] != 0) {
+            if (emailSlots[slot] == row + 1) {
+                shiftBackEmail(slot, mask);
+                emailCount--;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void shiftBackEmail(int free, int mask) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int entry = emailSlots[slot];
+            if (entry == 0) {
+                break;
+            }
+            int home = emailHash(entry - 1) & mask;
+            boolean movable = free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+            if (movable) {
+                emailSlots[free] = entry;
+                free = slot;
+            }
+        }
+        emailSlots[free] = 0;
+    }
+
+    private void rebuildEmailIndex(int capacity) {
+        while (capacity * 0.6 < size + 1) {
+            capacity <<= 1;
+        }
+        emailSlots = new int[capacity];
+        emailCount = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!getBit(removedBits, row) && emailLengths[row] >= 0) {
+                insertEmail(row);
+                emailCount++;
+            }
+        }
+    }
+
+    private int emailHash(int row) {
+        return hash(arena, emailOffsets[row], emailLengths[row]);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int epochDay(LocalDate date) {
+        return date == null ? NO_DATE : (int) date.toEpochDay();
+    }
+
+    private static boolean getBit(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bits, int index, boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << index;
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /** Growable int array used to collect matching ids. */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        int[] toSortedArray() {
+            int[] result = toArray();
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package sub_project;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes customers in the customers.csv format that {@link CsvLoader} reads. The file is written
+ * next to the target and renamed over it, so readers never see half an export.
+ */
+class CsvExporter {
+    static final String CSV_HEADER = "id,name,email,subscriptionType,renewalDate,canceled,paymentMethod";
+
+    private CsvExporter() {
+    }
+
+    /** Returns the number of customers written. */
+    static int export(Iterable<Customer> customers, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        int rows = 0;
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8))) {
+            writer.write(CSV_HEADER);
+            writer.newLine();
+            for (Customer c : customers) {
+                writer.write(toCsvLine(c));
+                writer.newLine();
+                rows++;
+            }
+            writer.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    static String toCsvLine(Customer c) {
+        return c.getId() + "," + c.getName() + "," + c.getEmail() + "," +
+               c.getSubscriptionType() + "," + c.getRenewalDate() + "," + c.isCanceled() + "," + c.getPaymentMethod();
+    }
+}
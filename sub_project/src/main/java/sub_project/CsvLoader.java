@@ -0,0 +1,267 @@
+package sub_project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the customers.csv snapshot by memory-mapping it, cutting it into chunks on line boundaries
+ * and parsing the chunks in parallel on the common fork-join pool. Fields are scanned straight from
+ * the mapped bytes; {@code yyyy-MM-dd} dates skip the DateTimeFormatter.
+ */
+class CsvLoader {
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 1 << 28;
+
+    private static final byte[][] TYPE_NAMES = names(SubscriptionType.values());
+    private static final byte[][] METHOD_NAMES = names(PaymentMethod.values());
+
+    private CsvLoader() {
+    }
+
+    /**
+     * Result of a load: customers in id order plus timing for the startup report, and the lines
+     * skipped because they do not start with an id (other than the header and blank lines).
+     */
+    static class Result {
+        final List<Customer> customers;
+        final int chunks;
+        final long elapsedNanos;
+        final int skipped;
+        final long firstSkipped; // byte offset of the first skipped line, or -1
+
+        Result(List<Customer> customers, int chunks, long elapsedNanos, int skipped, long firstSkipped) {
+            this.customers = customers;
+            this.chunks = chunks;
+            this.elapsedNanos = elapsedNanos;
+            this.skipped = skipped;
+            this.firstSkipped = firstSkipped;
+        }
+    }
+
+    static Result load(File file) throws IOException {
+        long start = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            List<long[]> ranges = split(channel, size);
+            List<ChunkTask> tasks = new ArrayList<>(ranges.size());
+            for (long[] range : ranges) {
+                tasks.add(new ChunkTask(channel, range[0], range[1]));
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                    return null;
+                }
+            });
+
+            int total = 0;
+            int skipped = 0;
+            long firstSkipped = -1;
+            for (ChunkTask task : tasks) {
+                total += task.join().size();
+                if (firstSkipped < 0) {
+                    firstSkipped = task.firstSkipped;
+                }
+                skipped += task.skipped;
+            }
+            List<Customer> customers = new ArrayList<>(total);
+            for (ChunkTask task : tasks) {
+                customers.addAll(task.join());
+            }
+            if (!isSortedById(customers)) {
+                customers.sort(Comparator.comparingInt(Customer::getId));
+            }
+            return new Result(customers, ranges.size(), System.nanoTime() - start, skipped, firstSkipped);
+        }
+    }
+
+    // Chunk boundaries are moved forward to just after the next '\n'.
+    private static List<long[]> split(FileChannel channel, long size) throws IOException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long chunk = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (parallelism * 4L) + 1));
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunk);
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += read;
+            }
+            ranges.add(new long[] {start, Math.min(end, size)});
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static class ChunkTask extends RecursiveTask<List<Customer>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long start;
+        private final long end;
+        // Set by compute, read after join
+        int skipped;
+        long firstSkipped = -1;
+
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<Customer> compute() {
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                return parse(buffer, start, this);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map customers file: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static List<Customer> parse(ByteBuffer buf, long baseOffset, ChunkTask task) {
+        List<Customer> list = new ArrayList<>(buf.limit() / 64 + 1);
+        int limit = buf.limit();
+        int pos = 0;
+        int[] fields = new int[8];
+        while (pos < limit) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > pos && buf.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            byte first = contentEnd > pos ? buf.get(pos) : 0;
+            if (first >= '0' && first <= '9') {
+                list.add(parseLine(buf, pos, contentEnd, fields, baseOffset));
+            } else if (contentEnd > pos && baseOffset + pos > 0) {
+                // not blank and not the header row, which are skipped quietly
+                if (task.skipped++ == 0) {
+                    task.firstSkipped = baseOffset + pos;
+                }
+            }
+            pos = lineEnd + 1;
+        }
+        return list;
+    }
+
+    private static Customer parseLine(ByteBuffer buf, int start, int end, int[] fields, long baseOffset) {
+        int count = 0;
+        fields[count++] = start;
+        for (int i = start; i < end && count < fields.length; i++) {
+            if (buf.get(i) == ',') {
+                fields[count++] = i + 1;
+            }
+        }
+        if (count < 6) {
+            throw new IllegalArgumentException("Malformed customer row at byte " + (baseOffset + start));
+        }
+        int id = parseInt(buf, fields[0], fields[1] - 1);
+        String name = string(buf, fields[1], fields[2] - 1);
+        String email = string(buf, fields[2], fields[3] - 1);
+        SubscriptionType type = SubscriptionType.values()[match(buf, fields[3], fields[4] - 1, TYPE_NAMES, baseOffset)];
+        LocalDate date = parseDate(buf, fields[4], fields[5] - 1);
+        int canceledEnd = count > 6 ? fields[6] - 1 : end;
+        boolean canceled = canceledEnd - fields[5] == 4 && (buf.get(fields[5]) == 't' || buf.get(fields[5]) == 'T');
+        PaymentMethod paymentMethod = null;
+        if (type != SubscriptionType.FREE && count > 6) {
+            paymentMethod = PaymentMethod.values()[match(buf, fields[6], end, METHOD_NAMES, baseOffset)];
+        }
+        return new Customer(id, name, email, type, date, canceled, paymentMethod);
+    }
+
+    private static int parseInt(ByteBuffer buf, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Bad id: " + string(buf, start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static LocalDate parseDate(ByteBuffer buf, int start, int end) {
+        if (end - start == 10 && buf.get(start + 4) == '-' && buf.get(start + 7) == '-') {
+            return LocalDate.of(parseInt(buf, start, start + 4), parseInt(buf, start + 5, start + 7), parseInt(buf, start + 8, end));
+        }
+        return LocalDate.parse(string(buf, start, end));
+    }
+
+    private static int match(ByteBuffer buf, int start, int end, byte[][] names, long baseOffset) {
+        int length = end - start;
+        for (int n = 0; n < names.length; n++) {
+            byte[] name = names[n];
+            if (name.length != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && buf.get(start + i) == name[i]) {
+                i++;
+            }
+            if (i == length) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("Unknown value '" + string(buf, start, end) + "' at byte " + (baseOffset + start));
+    }
+
+    private static String string(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+
+    private static boolean isSortedById(List<Customer> customers) {
+        for (int i = 1; i < customers.size(); i++) {
+            if (customers.get(i - 1).getId() > customers.get(i).getId()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,15 +1,30 @@
 package sub_project;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Customer {
+    // Changes to a customer are serialized on a lock picked by id. Not the object's monitor: listeners
+    // may block on storage locks, and a virtual thread blocked inside synchronized pins its carrier.
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[4096];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
     private final int id;
-    private String name;
-    private String email;
-    private SubscriptionType subscriptionType; // Используем enum SubscriptionType вместо строки
-    private LocalDate renewalDate;
-    private boolean isCanceled;
-    private PaymentMethod paymentMethod; // Replace String with PaymentMethod
+    private volatile String name;
+    private volatile String email;
+    private volatile SubscriptionType subscriptionType; // Используем enum SubscriptionType вместо строки
+    private volatile LocalDate renewalDate;
+    private volatile boolean isCanceled;
+    private volatile PaymentMethod paymentMethod; // Replace String with PaymentMethod
+    private volatile CustomerListener listener;
 
     public Customer(int id, String name, String email, SubscriptionType subscriptionType, LocalDate renewalDate, boolean isCanceled, PaymentMethod paymentMethod) {
         this.id = id;
@@ -29,21 +44,147 @@ public class Customer {
     public boolean isCanceled() { return isCanceled; }
     public PaymentMethod getPaymentMethod() { return paymentMethod; }
 
-    public void setName(String name) { this.name = name; }
-    public void setEmail(String email) { this.email = email; }
-    public void setSubscriptionType(SubscriptionType subscriptionType) { this.subscriptionType = subscriptionType; }
-    public void setRenewalDate(LocalDate renewalDate) { this.renewalDate = renewalDate; }
-    public void setCanceled(boolean canceled) { this.isCanceled = canceled; }
-    public void setPaymentMethod(PaymentMethod paymentMethod) { this.paymentMethod = paymentMethod; }
+    public void setName(String name) {
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            String old = this.name;
+            this.name = name;
+            fireChanged(CustomerField.NAME, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setEmail(String email) {
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            String old = this.email;
+            this.email = email;
+            fireChanged(CustomerField.EMAIL, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setSubscriptionType(SubscriptionType subscriptionType) {
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            SubscriptionType old = this.subscriptionType;
+            this.subscriptionType = subscriptionType;
+            fireChanged(CustomerField.SUBSCRIPTION_TYPE, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setRenewalDate(LocalDate renewalDate) {
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            LocalDate old = this.renewalDate;
+            this.renewalDate = renewalDate;
+            fireChanged(CustomerField.RENEWAL_DATE, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCanceled(boolean canceled) {
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            boolean old = this.isCanceled;
+            this.isCanceled = canceled;
+            fireChanged(CustomerField.CANCELED, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setPaymentMethod(PaymentMethod paymentMethod) {
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            PaymentMethod old = this.paymentMethod;
+            this.paymentMethod = paymentMethod;
+            fireChanged(CustomerField.PAYMENT_METHOD, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setListener(CustomerListener listener) { this.listener = listener; }
+
+    /** Returns once every setter that was notifying listeners when called has finished. */
+    static void awaitChanges() {
+        for (ReentrantLock lock : LOCKS) {
+            lock.lock();
+            lock.unlock();
+        }
+    }
+
+    /** The lock that orders changes to this customer; shared with a few unrelated customers. */
+    ReentrantLock lock() {
+        return LOCKS[(id * 0x9E3779B9) >>> 20];
+    }
+
+    Object get(CustomerField field) {
+        switch (field) {
+            case NAME: return name;
+            case EMAIL: return email;
+            case SUBSCRIPTION_TYPE: return subscriptionType;
+            case RENEWAL_DATE: return renewalDate;
+            case CANCELED: return isCanceled;
+            case PAYMENT_METHOD: return paymentMethod;
+            default: throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    void set(CustomerField field, Object value) {
+        switch (field) {
+            case NAME: setName((String) value); break;
+            case EMAIL: setEmail((String) value); break;
+            case SUBSCRIPTION_TYPE: setSubscriptionType((SubscriptionType) value); break;
+            case RENEWAL_DATE: setRenewalDate((LocalDate) value); break;
+            case CANCELED: setCanceled((Boolean) value); break;
+            case PAYMENT_METHOD: setPaymentMethod((PaymentMethod) value); break;
+            default: throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    // Called while holding this customer's lock so listeners see its changes in order
+    private void fireChanged(CustomerField field, Object oldValue) {
+        if (listener != null) {
+            listener.customerChanged(this, field, oldValue);
+        }
+    }
 
     public String toString() {
-        String paymentInfo = subscriptionType == SubscriptionType.FREE ? "N/A" : paymentMethod.toString();
-        return "ID: " + id + "\nName: " + name + "\nEmail: " + email + "\nType: " + subscriptionType + 
-               "\nRenewal: " + renewalDate + "\nCanceled: " + (isCanceled ? "Yes" : "No") + "\nPayment Method: " + paymentInfo;
+        StringBuilder sb = new StringBuilder(160);
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    /** Writes the {@link #toString} text piece by piece, so listing many customers builds no strings. */
+    public void writeTo(Appendable out) throws IOException {
+        out.append("ID: ").append(Integer.toString(id))
+                .append("\nName: ").append(name)
+                .append("\nEmail: ").append(email)
+                .append("\nType: ").append(String.valueOf(subscriptionType))
+                .append("\nRenewal: ").append(String.valueOf(renewalDate))
+                .append("\nCanceled: ").append(isCanceled ? "Yes" : "No")
+                .append("\nPayment Method: ").append(subscriptionType == SubscriptionType.FREE ? "N/A" : String.valueOf(paymentMethod));
     }
 
     public long getDaysUntilRenewal() {
-        return LocalDate.now().until(renewalDate).getDays();
+        return ChronoUnit.DAYS.between(LocalDate.now(), renewalDate);
     }
 
     public void markAsPaid() {
@@ -67,11 +208,17 @@ public class Customer {
     }
 
     public void renewSubscription() {
-        if (subscriptionType != SubscriptionType.FREE) {
-            renewalDate = renewalDate.plusMonths(subscriptionType.getDurationInMonths());
-            System.out.println("Subscription renewed for customer ID: " + id);
-        } else {
-            System.out.println("Free subscriptions do not require renewal.");
+        ReentrantLock lock = lock();
+        lock.lock();
+        try {
+            if (subscriptionType != SubscriptionType.FREE) {
+                setRenewalDate(renewalDate.plusMonths(subscriptionType.getDurationInMonths()));
+                System.out.println("Subscription renewed for customer ID: " + id);
+            } else {
+                System.out.println("Free subscriptions do not require renewal.");
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -0,0 +1,10 @@
+package sub_project;
+
+public enum CustomerField {
+    NAME,
+    EMAIL,
+    SUBSCRIPTION_TYPE,
+    RENEWAL_DATE,
+    CANCELED,
+    PAYMENT_METHOD;
+}
@@ -0,0 +1,8 @@
+package sub_project;
+
+/**
+ * Notified after a field of a stored customer has been changed through one of its setters.
+ */
+interface CustomerListener {
+    void customerChanged(Customer customer, CustomerField field, Object oldValue);
+}
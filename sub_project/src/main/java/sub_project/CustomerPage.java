@@ -0,0 +1,21 @@
+package sub_project;
+
+import java.util.List;
+
+/** One page of {@link SubscriptionManager#queryCustomers} results. */
+public class CustomerPage {
+    private final List<Customer> customers;
+    private final String nextCursor;
+
+    CustomerPage(List<Customer> customers, String nextCursor) {
+        this.customers = customers;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Customer> getCustomers() { return customers; }
+
+    /** Pass to {@link CustomerQuery#after} for the next page; null on the last page. */
+    public String getNextCursor() { return nextCursor; }
+
+    public boolean hasMore() { return nextCursor != null; }
+}
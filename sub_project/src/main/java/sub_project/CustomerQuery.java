@@ -0,0 +1,257 @@
+package sub_project;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * Filter, order and page size for {@link SubscriptionManager#queryCustomers}. Every filter is
+ * optional; unset ones match everything. Pages are addressed by the cursor of the previous page
+ * rather than an offset, so each page costs one pass over the candidates and memory proportional
+ * to the page size, however deep the caller pages.
+ *
+ * <pre>
+ * CustomerQuery query = new CustomerQuery().type(SubscriptionType.GOLD).canceled(false)
+ *         .sortBy(CustomerSort.RENEWAL_DATE, false).pageSize(100);
+ * CustomerPage page = manager.queryCustomers(query);
+ * page = manager.queryCustomers(query.after(page.getNextCursor()));
+ * </pre>
+ */
+public class CustomerQuery {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private SubscriptionType type;
+    private PaymentMethod paymentMethod;
+    private Boolean canceled;
+    private LocalDate renewalFrom;
+    private LocalDate renewalTo;
+    private String emailPrefix;
+    private String namePrefix;
+    private CustomerSort sort = CustomerSort.ID;
+    private boolean descending;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private String cursor;
+
+    public CustomerQuery type(SubscriptionType type) {
+        this.type = type;
+        return this;
+    }
+
+    public CustomerQuery paymentMethod(PaymentMethod paymentMethod) {
+        this.paymentMethod = paymentMethod;
+        return this;
+    }
+
+    public CustomerQuery canceled(Boolean canceled) {
+        this.canceled = canceled;
+        return this;
+    }
+
+    /** Renewal dates from {@code from} to {@code to}, both inclusive; either may be null for an open end. */
+    public CustomerQuery renewalBetween(LocalDate from, LocalDate to) {
+        this.renewalFrom = from;
+        this.renewalTo = to;
+        return this;
+    }
+
+    /** Case-insensitive email prefix. */
+    public CustomerQuery emailPrefix(String prefix) {
+        this.emailPrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+        return this;
+    }
+
+    /** Case-insensitive name prefix. */
+    public CustomerQuery namePrefix(String prefix) {
+        this.namePrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+        return this;
+    }
+
+    public CustomerQuery sortBy(CustomerSort sort, boolean descending) {
+        if (sort == null) {
+            throw new IllegalArgumentException("sort is missing");
+        }
+        this.sort = sort;
+        this.descending = descending;
+        return this;
+    }
+
+    public CustomerQuery pageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /** Continues after the page that returned {@code cursor}; null starts from the first page. */
+    public CustomerQuery after(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    public CustomerQuery copy() {
+        CustomerQuery copy = new CustomerQuery();
+        copy.type = type;
+        copy.paymentMethod = paymentMethod;
+        copy.canceled = canceled;
+        copy.renewalFrom = renewalFrom;
+        copy.renewalTo = renewalTo;
+        copy.emailPrefix = emailPrefix;
+        copy.namePrefix = namePrefix;
+        copy.sort = sort;
+        copy.descending = descending;
+        copy.pageSize = pageSize;
+        copy.cursor = cursor;
+        return copy;
+    }
+
+    SubscriptionType getType() { return type; }
+    PaymentMethod getPaymentMethod() { return paymentMethod; }
+    Boolean getCanceled() { return canceled; }
+    LocalDate getRenewalFrom() { return renewalFrom; }
+    LocalDate getRenewalTo() { return renewalTo; }
+    CustomerSort getSort() { return sort; }
+    boolean isDescending() { return descending; }
+    int getPageSize() { return pageSize; }
+    String getCursor() { return cursor; }
+
+    /** Applies every filter; stores narrow candidates with their indexes first, this settles the rest. */
+    boolean matches(Customer customer) {
+        if (type != null && customer.getSubscriptionType() != type) {
+            return false;
+        }
+        if (paymentMethod != null && customer.getPaymentMethod() != paymentMethod) {
+            return false;
+        }
+        if (canceled != null && customer.isCanceled() != canceled) {
+            return false;
+        }
+        if (renewalFrom != null || renewalTo != null) {
+            LocalDate date = customer.getRenewalDate();
+            if (date == null || (renewalFrom != null && date.isBefore(renewalFrom)) || (renewalTo != null && date.isAfter(renewalTo))) {
+                return false;
+            }
+        }
+        return startsWith(customer.getEmail(), emailPrefix) && startsWith(customer.getName(), namePrefix);
+    }
+
+    private static boolean startsWith(String value, String prefix) {
+        return prefix == null || (value != null && value.regionMatches(true, 0, prefix, 0, prefix.length()));
+    }
+
+    // Cursor text is base64url of "SORT:id:" followed by "=key", or nothing for a null key
+    static String cursorOf(CustomerSort sort, Customer last) {
+        String key = sort.key(last);
+        String text = sort.name() + ":" + last.getId() + ":" + (key == null ? "" : "=" + key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The position a cursor stands for, as a stand-in customer to compare candidates against
+    Customer cursorPosition() {
+        if (cursor == null) {
+            return null;
+        }
+        String text;
+        int keyStart;
+        int id;
+        try {
+            text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int idStart = text.indexOf(':') + 1;
+            keyStart = text.indexOf(':', idStart) + 1;
+            id = Integer.parseInt(text.substring(idStart, keyStart - 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("bad cursor");
+        }
+        if (!text.startsWith(sort.name() + ":")) {
+            throw new IllegalArgumentException("cursor belongs to a query with another sort order");
+        }
+        return sort.position(id, keyStart < text.length() ? text.substring(keyStart + 1) : null);
+    }
+
+    /**
+     * One page of the customers in {@code store} matching this query, in its order: one pass over the
+     * candidates the store's indexes leave, run as a parallel stream once the store holds
+     * {@code parallelThreshold} customers.
+     */
+    CustomerPage page(CustomerStore store, int parallelThreshold) {
+        Comparator<Customer> order = sort.comparator(descending);
+        Customer after = cursorPosition();
+        List<Customer> first = store.scan(this, candidates -> {
+            Stream<Customer> stream = store.size() >= parallelThreshold ? candidates.parallel() : candidates;
+            return stream.filter(customer -> matches(customer) && (after == null || order.compare(customer, after) > 0))
+                    .collect(firstN(pageSize + 1, order));
+        });
+        List<Customer> page = new ArrayList<>(Math.min(pageSize, first.size()));
+        for (Customer customer : first.subList(0, Math.min(pageSize, first.size()))) {
+            // The shared instance, not a copy a columnar store made for the scan
+            Customer current = store.get(customer.getId());
+            if (current != null) {
+                page.add(current);
+            }
+        }
+        String next = first.size() > pageSize ? cursorOf(sort, first.get(pageSize - 1)) : null;
+        return new CustomerPage(page, next);
+    }
+
+    /**
+     * Writes every match from the cursor on in the {@link Customer#toString} format with a blank line
+     * after each, fetching pages of at least {@code pageSize} from {@code pages} as the output goes;
+     * returns how many were written.
+     */
+    int writeTo(Writer out, int pageSize, Function<CustomerQuery, CustomerPage> pages) throws IOException {
+        CustomerQuery paging = copy().pageSize(Math.max(this.pageSize, pageSize));
+        int written = 0;
+        while (true) {
+            CustomerPage page = pages.apply(paging);
+            for (Customer customer : page.getCustomers()) {
+                customer.writeTo(out);
+                out.write("\n\n");
+                written++;
+            }
+            if (!page.hasMore()) {
+                return written;
+            }
+            paging.after(page.getNextCursor());
+        }
+    }
+
+    /**
+     * Keeps the first {@code n} customers in {@code order} with a bounded heap per thread, so a
+     * parallel scan of any size holds at most {@code n} customers per worker.
+     */
+    static Collector<Customer, ?, List<Customer>> firstN(int n, Comparator<Customer> order) {
+        Comparator<Customer> reversed = order.reversed();
+        return Collector.of(
+                () -> new PriorityQueue<Customer>(Math.min(n, 1024) + 1, reversed),
+                (heap, customer) -> offer(heap, customer, n, order),
+                (left, right) -> {
+                    for (Customer customer : right) {
+                        offer(left, customer, n, order);
+                    }
+                    return left;
+                },
+                heap -> {
+                    List<Customer> list = new ArrayList<>(heap);
+                    list.sort(order);
+                    return list;
+                });
+    }
+
+    private static void offer(PriorityQueue<Customer> heap, Customer customer, int n, Comparator<Customer> order) {
+        if (heap.size() < n) {
+            heap.add(customer);
+        } else if (order.compare(customer, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(customer);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package sub_project;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+
+/**
+ * Binary customer snapshot, version 1. Layout, big-endian:
+ * <pre>
+ * header   magic "SUBS", int version, int recordCount, int nextId, long heapLength
+ * records  recordCount x 28 bytes, ascending id:
+ *          int id, int renewalEpochDay, byte type, byte paymentMethod (-1 none), byte flags (1 = canceled),
+ *          byte unused, int nameOffset, int nameLength (-1 null), int emailOffset, int emailLength
+ * heap     UTF-8 names and emails; offsets are relative to the start of the heap
+ * </pre>
+ * Written to a temp file, forced to disk and renamed over the old snapshot, so a reader never sees
+ * a partial file. Opening maps the file read-only; records are decoded on demand, and because they
+ * are sorted by id a single customer can be found by binary search before anything is loaded.
+ */
+class CustomerSnapshot {
+    static final int MAGIC = 0x53554253; // "SUBS"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 28;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final SubscriptionType[] TYPES = SubscriptionType.values();
+    private static final PaymentMethod[] METHODS = PaymentMethod.values();
+
+    private final ByteBuffer records;
+    private final ByteBuffer heap;
+    private final int size;
+    private final int nextId;
+
+    private CustomerSnapshot(ByteBuffer records, ByteBuffer heap, int size, int nextId) {
+        this.records = records;
+        this.heap = heap;
+        this.size = size;
+        this.nextId = nextId;
+    }
+
+    static CustomerSnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException(file + " is not a customer snapshot");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a customer snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported snapshot version " + version);
+            }
+            int size = header.getInt();
+            int nextId = header.getInt();
+            long heapLength = header.getLong();
+            long recordsLength = (long) size * RECORD_SIZE;
+            if (size < 0 || heapLength < 0 || HEADER_SIZE + recordsLength + heapLength != fileSize) {
+                throw new IOException(file + " is truncated or damaged");
+            }
+            // The mappings stay valid after the channel is closed
+            ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, recordsLength);
+            ByteBuffer heap = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + recordsLength, heapLength);
+            return new CustomerSnapshot(records, heap, size, nextId);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** The next id to hand out, as it was when the snapshot was written. */
+    int getNextId() {
+        return nextId;
+    }
+
+    /** Decodes the record at {@code index}; records are in ascending id order. */
+    Customer read(int index) {
+        int base = index * RECORD_SIZE;
+        int day = records.getInt(base + 4);
+        byte method = records.get(base + 9);
+        return new Customer(records.getInt(base),
+                string(records.getInt(base + 12), records.getInt(base + 16)),
+                string(records.getInt(base + 20), records.getInt(base + 24)),
+                TYPES[records.get(base + 8)],
+                day == NO_DATE ? null : LocalDate.ofEpochDay(day),
+                (records.get(base + 10) & 1) != 0,
+                method < 0 ? null : METHODS[method]);
+    }
+
+    /** Binary search by id; null when the snapshot has no such customer. */
+    Customer find(int id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = records.getInt(mid * RECORD_SIZE);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return read(mid);
+            }
+        }
+        return null;
+    }
+
+    private String string(int offset, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = heap.duplicate(); // own position, so concurrent readers do not interfere
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes {@code customers}, which must be in ascending id order, as the new snapshot. Records and
+     * heap are streamed to two temp files that are joined behind the header, so the customers are
+     * iterated only once.
+     */
+    static void write(File file, Iterable<Customer> customers, int nextId) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        File heapTmp = new File(file.getPath() + ".heap.tmp");
+        int count = 0;
+        long heapLength = 0;
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+             DataOutputStream heapOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(heapTmp), 1 << 16))) {
+            out.write(new byte[HEADER_SIZE]);
+            for (Customer c : customers) {
+                byte[] name = c.getName() == null ? null : c.getName().getBytes(StandardCharsets.UTF_8);
+                byte[] email = c.getEmail() == null ? null : c.getEmail().getBytes(StandardCharsets.UTF_8);
+                long nameOffset = heapLength;
+                long emailOffset = nameOffset + (name == null ? 0 : name.length);
+                heapLength = emailOffset + (email == null ? 0 : email.length);
+                if (heapLength > Integer.MAX_VALUE) {
+                    throw new IOException("Customer names and emails exceed the 2 GB snapshot limit");
+                }
+                out.writeInt(c.getId());
+                out.writeInt(c.getRenewalDate() == null ? NO_DATE : (int) c.getRenewalDate().toEpochDay());
+                out.writeByte(c.getSubscriptionType().ordinal());
+                out.writeByte(c.getPaymentMethod() == null ? -1 : c.getPaymentMethod().ordinal());
+                out.writeByte(c.isCanceled() ? 1 : 0);
+                out.writeByte(0);
+                out.writeInt((int) nameOffset);
+                out.writeInt(name == null ? -1 : name.length);
+                out.writeInt((int) emailOffset);
+                out.writeInt(email == null ? -1 : email.length);
+                if (name != null) {
+                    heapOut.write(name);
+                }
+                if (email != null) {
+                    heapOut.write(email);
+                }
+                count++;
+            }
+            heapOut.flush();
+            out.flush();
+            try (FileChannel heapChannel = FileChannel.open(heapTmp.toPath())) {
+                FileChannel target = fileOut.getChannel();
+                long copied = 0;
+                while (copied < heapLength) {
+                    copied += heapChannel.transferTo(copied, heapLength - copied, target);
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(nextId).putLong(heapLength).flip();
+            fileOut.getChannel().write(header, 0);
+            fileOut.getChannel().force(true);
+        } finally {
+            Files.deleteIfExists(heapTmp.toPath());
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
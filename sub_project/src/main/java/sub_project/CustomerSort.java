@@ -0,0 +1,52 @@
+package sub_project;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+
+/** Orders for {@link CustomerQuery} results; ties are broken by id so every order is total. */
+public enum CustomerSort {
+    ID,
+    NAME,
+    EMAIL,
+    RENEWAL_DATE;
+
+    Comparator<Customer> comparator(boolean descending) {
+        Comparator<Customer> order;
+        switch (this) {
+            case NAME:
+                order = Comparator.comparing(Customer::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+                break;
+            case EMAIL:
+                order = Comparator.comparing(Customer::getEmail, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+                break;
+            case RENEWAL_DATE:
+                order = Comparator.comparing(Customer::getRenewalDate, Comparator.nullsFirst(Comparator.<LocalDate>naturalOrder()));
+                break;
+            default:
+                order = (a, b) -> 0;
+                break;
+        }
+        order = order.thenComparingInt(Customer::getId);
+        return descending ? order.reversed() : order;
+    }
+
+    // The sort key of a customer as cursor text, null for a null key
+    String key(Customer customer) {
+        switch (this) {
+            case NAME: return customer.getName();
+            case EMAIL: return customer.getEmail();
+            case RENEWAL_DATE: return customer.getRenewalDate() == null ? null : customer.getRenewalDate().toString();
+            default: return "";
+        }
+    }
+
+    // A stand-in customer carrying only the id and this order's key, to compare candidates against
+    Customer position(int id, String key) {
+        return new Customer(id,
+                this == NAME ? key : null,
+                this == EMAIL ? key : null,
+                null,
+                this == RENEWAL_DATE && key != null ? LocalDate.parse(key) : null,
+                false, null);
+    }
+}
@@ -0,0 +1,69 @@
+package sub_project;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Storage behind {@link SubscriptionManager}. Iteration and {@link #values()} return customers in
+ * id order. Implementations are thread-safe.
+ */
+interface CustomerStore extends Iterable<Customer> {
+    int size();
+
+    boolean isEmpty();
+
+    /** Highest id ever stored (not lowered by removals). */
+    int getMaxId();
+
+    Customer get(int id);
+
+    /** Adds the customer, replacing and returning any stored customer with the same id. */
+    Customer add(Customer customer);
+
+    Customer remove(int id);
+
+    void clear();
+
+    /** All customers ordered by id. */
+    List<Customer> values();
+
+    List<Customer> findByEmail(String email);
+
+    List<Customer> findByType(SubscriptionType type);
+
+    List<Customer> findByPaymentMethod(PaymentMethod paymentMethod);
+
+    List<Customer> findCanceled();
+
+    /**
+     * Runs {@code scan} over a stream of every customer that may match {@code query}, in no
+     * particular order and without copying the store; {@code scan} may make the stream parallel.
+     * The store narrows the candidates with whatever indexes it has, the caller applies
+     * {@link CustomerQuery#matches} to settle the rest. Writers wait until {@code scan} returns.
+     */
+    <R> R scan(CustomerQuery query, Function<Stream<Customer>, R> scan);
+
+    /** Brings the store up to date after {@code field} of a stored customer changed. */
+    void reindex(Customer customer, CustomerField field, Object oldValue);
+
+    /**
+     * Sets the listener of every customer object handed out by this store, now and later; null
+     * detaches them, as when the store is replaced.
+     */
+    void setListener(CustomerListener listener);
+
+    /**
+     * The parts of the store that lock, load and save independently, each holding whole customers;
+     * a store that is not split is its own only part.
+     */
+    default List<CustomerStore> shards() {
+        return List.of(this);
+    }
+
+    /** Counters the store keeps about itself, such as cache hits, by name; empty when it keeps none. */
+    default Map<String, Long> stats() {
+        return Map.of();
+    }
+}
@@ -0,0 +1,264 @@
+package sub_project;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * A file derived from the customers, such as subscriptions_and_usernames.csv: a header and one line
+ * per customer that passes {@code filter}, maintained as a materialized view instead of rewritten
+ * after every change.
+ *
+ * <p>Changes only note the customer's id, so they cost the same whatever the number of customers.
+ * {@link #refresh} writes the lines of the noted ids: new customers are appended, and a line whose
+ * new text has the same length is overwritten in place. A change it cannot apply that way (a removed
+ * line, one that changed length, or a new customer with a lower id than the last line) marks the
+ * view dirty, as does replacing every customer, and so does starting up. A dirty view is rewritten
+ * from scratch, by {@link #read} at once and by {@link #refresh} at most once per interval, so a
+ * stream of such changes does not turn into a stream of full rewrites.
+ */
+final class DerivedView {
+    private static final int MAX_LINE = (1 << 20) - 1;
+
+    private final File file;
+    private final byte[] header;
+    private final Predicate<Customer> filter;
+    private final Function<Customer, String> line;
+    private final Set<CustomerField> fields;
+    private final IntFunction<Customer> lookup;
+
+    // Guards dirty and pending; taken by changes, so never held while doing I/O
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean dirty = true; // nothing is known about a file left by an earlier run
+    private final IntHashMap<Boolean> pending = new IntHashMap<>();
+
+    // Serializes file I/O and guards the line index below; always taken before lock
+    private final ReentrantLock io = new ReentrantLock();
+    private int[] ids = new int[0];      // ids of the lines in the file, ascending
+    private long[] spans = new long[0];  // offset << 20 | length of each line, by index into ids
+    private int lines;
+    private long end;
+    private boolean rewritten;
+    private long rewrittenAt; // System.nanoTime() after the last rewrite
+
+    /**
+     * @param fields the customer fields {@code filter} and {@code line} read; changes to other
+     *               fields are ignored
+     * @param lookup the current customer with an id, or null when there is none
+     */
+    DerivedView(File file, String header, Predicate<Customer> filter, Function<Customer, String> line,
+                Set<CustomerField> fields, IntFunction<Customer> lookup) {
+        this.file = file;
+        this.header = (header + "\n").getBytes(StandardCharsets.UTF_8);
+        this.filter = filter;
+        this.line = line;
+        this.fields = fields;
+        this.lookup = lookup;
+    }
+
+    File file() {
+        return file;
+    }
+
+    void added(Customer customer) {
+        changed(customer.getId());
+    }
+
+    void removed(Customer customer) {
+        changed(customer.getId());
+    }
+
+    void customerChanged(Customer customer, CustomerField field, Object oldValue) {
+        if (fields.contains(field)) {
+            changed(customer.getId());
+        }
+    }
+
+    /** Every customer was replaced; the file is rewritten when next read. */
+    void invalidate() {
+        lock.lock();
+        try {
+            dirty = true;
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void changed(int id) {
+        lock.lock();
+        try {
+            if (!dirty) {
+                pending.put(id, Boolean.TRUE);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the lines of the customers changed since the last refresh. A dirty view is rewritten
+     * from {@code customers} instead, unless the last rewrite was less than {@code minRewriteNanos}
+     * ago; it then stays stale until a later refresh.
+     */
+    void refresh(Iterable<Customer> customers, long minRewriteNanos) throws IOException {
+        io.lock();
+        try {
+            if (!flushChanges() && (!rewritten || System.nanoTime() - rewrittenAt >= minRewriteNanos)) {
+                rewrite(customers);
+            }
+        } finally {
+            io.unlock();
+        }
+    }
+
+    /** Brings the file up to date, rewriting it from {@code customers} when dirty, and returns it. */
+    File read(Iterable<Customer> customers) throws IOException {
+        refresh(customers, 0);
+        return file;
+    }
+
+    // Caller holds io
+    private boolean flushChanges() throws IOException {
+        int[] changed;
+        lock.lock();
+        try {
+            if (dirty) {
+                return false;
+            }
+            if (pending.isEmpty()) {
+                return true;
+            }
+            changed = pending.keys();
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+        Arrays.sort(changed);
+        ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            for (int id : changed) {
+                Customer customer = lookup.apply(id);
+                byte[] bytes = customer != null && filter.test(customer) ? lineOf(customer) : null;
+                int index = Arrays.binarySearch(ids, 0, lines, id);
+                if (index >= 0) {
+                    long span = spans[index];
+                    if (bytes == null || bytes.length != (int) (span & MAX_LINE)) {
+                        return markDirty();
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    long at = span >>> 20;
+                    while (buffer.hasRemaining()) {
+                        at += channel.write(buffer, at);
+                    }
+                } else if (bytes != null) {
+                    if (lines > 0 && id < ids[lines - 1]) {
+                        return markDirty();
+                    }
+                    index(id, end + appended.size(), bytes.length);
+                    appended.write(bytes);
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(appended.toByteArray());
+            while (buffer.hasRemaining()) {
+                end += channel.write(buffer, end);
+            }
+        } catch (IOException e) {
+            markDirty();
+            throw e;
+        }
+        return true;
+    }
+
+    // Changes made while the file is written are noted as usual and applied by the next flush
+    private void rewrite(Iterable<Customer> customers) throws IOException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            dirty = false;
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+        lines = 0;
+        File tmp = new File(file.getPath() + ".tmp");
+        long offset = header.length;
+        boolean ordered = true;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)) {
+            out.write(header);
+            for (Customer customer : customers) {
+                if (!filter.test(customer)) {
+                    continue;
+                }
+                byte[] bytes = lineOf(customer);
+                ordered &= lines == 0 || customer.getId() > ids[lines - 1];
+                index(customer.getId(), offset, bytes.length);
+                out.write(bytes);
+                offset += bytes.length;
+            }
+        } catch (IOException e) {
+            markDirty();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        end = offset;
+        if (!ordered) {
+            sortIndex();
+        }
+        rewritten = true;
+        rewrittenAt = System.nanoTime();
+        EventLog.info("view_rewritten", "file", file.getName(), "lines", lines, "ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private byte[] lineOf(Customer customer) {
+        return (line.apply(customer) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // A line too long to record its length is never patched, only rewritten
+    private void index(int id, long offset, int length) {
+        if (lines == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(16, lines * 2));
+            spans = Arrays.copyOf(spans, ids.length);
+        }
+        ids[lines] = id;
+        spans[lines] = offset << 20 | (length > MAX_LINE ? 0 : length);
+        lines++;
+    }
+
+    // Stores iterate shard by shard, not always in id order
+    private void sortIndex() {
+        long[] order = new long[lines];
+        for (int i = 0; i < lines; i++) {
+            order[i] = (long) ids[i] << 32 | i;
+        }
+        Arrays.sort(order);
+        int[] sortedIds = new int[ids.length];
+        long[] sortedSpans = new long[ids.length];
+        for (int i = 0; i < lines; i++) {
+            sortedIds[i] = (int) (order[i] >>> 32);
+            sortedSpans[i] = spans[(int) order[i]];
+        }
+        ids = sortedIds;
+        spans = sortedSpans;
+    }
+
+    private boolean markDirty() {
+        invalidate();
+        return false;
+    }
+}
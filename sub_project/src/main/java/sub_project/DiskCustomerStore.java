@@ -0,0 +1,721 @@
+package sub_project;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Customer store for customer bases larger than the heap: records live in a file and only an id to
+ * record position index stays resident, plus a cache of the {@code subscription.cache.size} most
+ * recently used customers (default 100,000) evicted in least-recently-used order. As with
+ * {@link ColumnarCustomerStore}, while a caller holds a customer later lookups return the same
+ * instance, so its setters keep working.
+ *
+ * <p>Added customers are written at once. A change to a stored customer only marks its cache
+ * entry dirty; the record is rewritten when the entry is evicted, so a hot customer changed many
+ * times costs one write. Lookups by anything but id walk the file. Superseded records are dropped
+ * by copying the live ones to a fresh file once they make up half of it.
+ *
+ * <p>The file is scratch space in {@code subscription.disk.dir} (default the temp directory),
+ * filled from the snapshot and log at startup and deleted once the store is unreachable or the JVM
+ * exits; durability stays with {@link PersistenceEngine}.
+ */
+class DiskCustomerStore implements CustomerStore {
+    private static final int WINDOW = 64 * 1024;
+    private static final long COMPACT_MIN = 16L * 1024 * 1024;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final StampedLock lock = new StampedLock();
+    // Guarded by lock: id -> record offset << 24 | record length, file bytes used and superseded
+    private IntLongHashMap positions = new IntLongHashMap();
+    private final DataFile data;
+    private long end;
+    private long garbage;
+    private volatile int size;
+    private volatile int maxId;
+
+    // Least recently used first; guarded by cacheLock, which is never held while waiting for lock
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private final LinkedHashMap<Integer, CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final int cacheSize;
+
+    private final ConcurrentHashMap<Integer, InstanceRef> instances = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Customer> collected = new ReferenceQueue<>();
+    private volatile CustomerListener listener;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writeBacks = new LongAdder();
+
+    private static class InstanceRef extends WeakReference<Customer> {
+        final int id;
+
+        InstanceRef(Customer customer, ReferenceQueue<Customer> queue) {
+            super(customer, queue);
+            this.id = customer.getId();
+        }
+    }
+
+    private static final class CacheEntry {
+        final Customer customer;
+        boolean dirty;
+
+        CacheEntry(Customer customer) {
+            this.customer = customer;
+        }
+    }
+
+    // The open file, apart from the store so that the cleaner can close it without reaching the store
+    private static final class DataFile implements Runnable {
+        volatile File file;
+        volatile FileChannel channel;
+
+        void open(File newFile) throws IOException {
+            FileChannel newChannel = FileChannel.open(newFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            File oldFile = file;
+            FileChannel oldChannel = channel;
+            file = newFile;
+            channel = newChannel;
+            close(oldFile, oldChannel);
+        }
+
+        @Override
+        public void run() {
+            close(file, channel);
+        }
+
+        private static void close(File file, FileChannel channel) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                // deleted below anyway
+            }
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    DiskCustomerStore() {
+        this(Integer.getInteger("subscription.cache.size", 100_000));
+    }
+
+    DiskCustomerStore(int cacheSize) {
+        this.cacheSize = Math.max(1, cacheSize);
+        this.data = new DataFile();
+        try {
+            data.open(newFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the customer file", e);
+        }
+        CLEANER.register(this, data);
+    }
+
+    private static File newFile() throws IOException {
+        File dir = new File(System.getProperty("subscription.disk.dir", System.getProperty("java.io.tmpdir")));
+        File file = File.createTempFile("customers-", ".db", dir);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static long pack(long offset, int length) {
+        return offset << 24 | length;
+    }
+
+    @Override
+    public int size() {
+        expunge();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    @Override
+    public int getMaxId() { return maxId; }
+
+    @Override
+    public Customer get(int id) {
+        expunge();
+        Customer customer = cached(id);
+        if (customer != null) {
+            hits.increment();
+        } else {
+            customer = load(id);
+            if (customer == null) {
+                return null;
+            }
+            misses.increment();
+        }
+        touch(customer, false);
+        return customer;
+    }
+
+    @Override
+    public Customer add(Customer customer) {
+        int id = customer.getId();
+        byte[] record = encode(customer);
+        Customer previous = null;
+        long stamp = lock.writeLock();
+        try {
+            long position = positions.get(id);
+            if (position >= 0) {
+                previous = cached(id);
+                if (previous == null) {
+                    previous = readAt(position);
+                }
+            }
+            append(id, record);
+            size = positions.size();
+            maxId = Math.max(maxId, id);
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        expunge();
+        instances.put(id, new InstanceRef(customer, collected));
+        uncache(id);
+        return previous;
+    }
+
+    @Override
+    public Customer remove(int id) {
+        Customer previous;
+        long stamp = lock.writeLock();
+        try {
+            long position = positions.remove(id);
+            if (position < 0) {
+                return null;
+            }
+            previous = cached(id);
+            if (previous == null) {
+                previous = readAt(position);
+            }
+            garbage += (int) position & 0xFFFFFF;
+            size = positions.size();
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        instances.remove(id);
+        uncache(id);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            positions.clear();
+            data.channel.truncate(0);
+            end = 0;
+            garbage = 0;
+            size = 0;
+            maxId = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        instances.clear();
+        cacheLock.lock();
+        try {
+            cache.clear();
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Customer> iterator() {
+        int[] order;
+        long stamp = lock.readLock();
+        try {
+            order = positions.keys();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        Arrays.sort(order);
+        return new Iterator<Customer>() {
+            private int index;
+            private Customer next = advance();
+
+            private Customer advance() {
+                while (index < order.length) {
+                    int id = order[index++];
+                    Customer cached = cached(id);
+                    Customer customer = cached != null ? cached : read(id);
+                    if (customer != null) {
+                        return customer;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Customer next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Customer current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public List<Customer> values() {
+        List<Customer> list = new ArrayList<>(size);
+        for (Customer customer : this) {
+            list.add(customer);
+        }
+        return list;
+    }
+
+    @Override
+    public List<Customer> findByEmail(String email) {
+        if (email == null) {
+            return new ArrayList<>();
+        }
+        return find(customer -> email.equals(customer.getEmail()));
+    }
+
+    @Override
+    public List<Customer> findByType(SubscriptionType type) {
+        return find(customer -> customer.getSubscriptionType() == type);
+    }
+
+    @Override
+    public List<Customer> findByPaymentMethod(PaymentMethod paymentMethod) {
+        return find(customer -> customer.getPaymentMethod() == paymentMethod);
+    }
+
+    @Override
+    public List<Customer> findCanceled() {
+        return find(Customer::isCanceled);
+    }
+
+    // Walks the file; the matches are handed out as shared instances but do not enter the cache
+    private List<Customer> find(Predicate<Customer> filter) {
+        List<Customer> found = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            RecordWalker walker = new RecordWalker();
+            while (walker.next()) {
+                Customer customer = walker.customer();
+                if (filter.test(customer)) {
+                    found.add(share(customer));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        found.sort(Comparator.comparingInt(Customer::getId));
+        return found;
+    }
+
+    /** Streams the file in record order; scans do not enter the cache, so they cannot flush the working set. */
+    @Override
+    public <R> R scan(CustomerQuery query, Function<Stream<Customer>, R> scan) {
+        long stamp = lock.readLock();
+        try {
+            RecordWalker walker = new RecordWalker();
+            Iterator<Customer> customers = new Iterator<Customer>() {
+                private boolean ready = walker.next();
+
+                @Override
+                public boolean hasNext() {
+                    return ready;
+                }
+
+                @Override
+                public Customer next() {
+                    if (!ready) {
+                        throw new NoSuchElementException();
+                    }
+                    Customer customer = walker.customer();
+                    ready = walker.next();
+                    return customer;
+                }
+            };
+            return scan.apply(StreamSupport.stream(Spliterators.spliteratorUnknownSize(customers, Spliterator.NONNULL), false));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Marks the shared instance dirty, so its record is rewritten when it leaves the cache. A change
+     * made through a copy handed out by iteration or a scan is applied to the stored record at once,
+     * field by field, since the copy's other fields may be older than the record.
+     */
+    @Override
+    public void reindex(Customer customer, CustomerField field, Object oldValue) {
+        int id = customer.getId();
+        Customer cached = cached(id);
+        if (cached == customer) {
+            touch(customer, true);
+            return;
+        }
+        if (cached != null) {
+            return; // a stale copy of a replaced customer
+        }
+        long stamp = lock.writeLock();
+        try {
+            long position = positions.get(id);
+            if (position < 0 || cached(id) != null) {
+                return; // removed, or shared since, which makes the copy stale
+            }
+            Customer stored = readAt(position);
+            stored.setListener(null);
+            // Takes the customer lock this thread already holds for the copy, as both have the same id
+            stored.set(field, customer.get(field));
+            append(id, encode(stored));
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void setListener(CustomerListener listener) {
+        this.listener = listener;
+        for (InstanceRef ref : instances.values()) {
+            Customer customer = ref.get();
+            if (customer != null) {
+                customer.setListener(listener);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("cache.hits", hits.sum());
+        stats.put("cache.misses", misses.sum());
+        stats.put("cache.evictions", evictions.sum());
+        stats.put("cache.writeBacks", writeBacks.sum());
+        cacheLock.lock();
+        try {
+            stats.put("cache.size", (long) cache.size());
+        } finally {
+            cacheLock.unlock();
+        }
+        long stamp = lock.readLock();
+        try {
+            stats.put("disk.bytes", end);
+            stats.put("disk.garbageBytes", garbage);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return stats;
+    }
+
+    // Moves the customer to the most recent end of the cache and writes back dirty entries it pushes out
+    private void touch(Customer customer, boolean dirty) {
+        List<Customer> evicted = null;
+        cacheLock.lock();
+        try {
+            CacheEntry entry = cache.get(customer.getId());
+            if (entry == null || entry.customer != customer) {
+                entry = new CacheEntry(customer);
+                cache.put(customer.getId(), entry);
+            }
+            entry.dirty |= dirty;
+            Iterator<CacheEntry> eldest = cache.values().iterator();
+            while (cache.size() > cacheSize) {
+                CacheEntry victim = eldest.next();
+                eldest.remove();
+                evictions.increment();
+                if (victim.dirty) {
+                    if (evicted == null) {
+                        evicted = new ArrayList<>();
+                    }
+                    evicted.add(victim.customer);
+                }
+            }
+        } finally {
+            cacheLock.unlock();
+        }
+        if (evicted != null) {
+            writeBack(evicted);
+        }
+    }
+
+    private void uncache(int id) {
+        cacheLock.lock();
+        try {
+            cache.remove(id);
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the records of evicted dirty customers. Each is encoded under the store lock, so two
+     * evictions of one customer append its states in the order they were read, but without the
+     * customer lock, since the caller may hold another customer's: a change racing the encoding
+     * marks the customer dirty again after its new value is set, so the record catches up on the
+     * next eviction.
+     */
+    private void writeBack(List<Customer> evicted) {
+        long stamp = lock.writeLock();
+        try {
+            for (Customer customer : evicted) {
+                if (positions.get(customer.getId()) >= 0 && cached(customer.getId()) == customer) {
+                    append(customer.getId(), encode(customer));
+                    writeBacks.increment();
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Customer cached(int id) {
+        InstanceRef ref = instances.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    // Publishes a freshly read customer, unless another caller already holds one for the same id
+    private Customer share(Customer loaded) {
+        while (true) {
+            InstanceRef existing = instances.putIfAbsent(loaded.getId(), new InstanceRef(loaded, collected));
+            if (existing == null) {
+                return loaded;
+            }
+            Customer other = existing.get();
+            if (other != null) {
+                return other;
+            }
+            instances.remove(loaded.getId(), existing);
+        }
+    }
+
+    // Drops entries whose customer was garbage collected, like WeakHashMap does on access
+    private void expunge() {
+        InstanceRef ref;
+        while ((ref = (InstanceRef) collected.poll()) != null) {
+            instances.remove(ref.id, ref);
+        }
+    }
+
+    // Reads and publishes the customer under the lock, so no newer instance can be written back and
+    // collected between the read and the publication
+    private Customer load(int id) {
+        long stamp = lock.readLock();
+        try {
+            long position = positions.get(id);
+            return position < 0 ? null : share(readAt(position));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Customer read(int id) {
+        long stamp = lock.readLock();
+        try {
+            long position = positions.get(id);
+            return position < 0 ? null : readAt(position);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Caller holds a lock
+    private Customer readAt(long position) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) position & 0xFFFFFF);
+        try {
+            readFully(data.channel, buffer, position >>> 24);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return decode(buffer.array(), 0, buffer.capacity());
+    }
+
+    // Record layout: int length of the whole record, then the customer as the write-ahead log encodes it
+    private static byte[] encode(Customer customer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0);
+            WriteAheadLog.writeCustomer(out, customer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in memory, does not happen
+        }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(0, record.length);
+        return record;
+    }
+
+    private Customer decode(byte[] bytes, int offset, int length) {
+        try {
+            Customer customer = WriteAheadLog.readCustomer(new DataInputStream(new ByteArrayInputStream(bytes, offset + 4, length - 4)));
+            customer.setListener(listener);
+            return customer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Caller holds the write lock
+    private void append(int id, byte[] record) {
+        try {
+            writeFully(data.channel, ByteBuffer.wrap(record), end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long previous = positions.put(id, pack(end, record.length));
+        if (previous >= 0) {
+            garbage += (int) previous & 0xFFFFFF;
+        }
+        end += record.length;
+    }
+
+    // Caller holds the write lock
+    private void compactIfNeeded() {
+        if (garbage > COMPACT_MIN && garbage > end / 2) {
+            compact();
+        }
+    }
+
+    // Copies the live records to a fresh file in their current order; caller holds the write lock
+    private void compact() {
+        File file = null;
+        try {
+            file = newFile();
+            IntLongHashMap moved = new IntLongHashMap();
+            long written = 0;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), WINDOW)) {
+                RecordWalker walker = new RecordWalker();
+                while (walker.next()) {
+                    out.write(walker.window.array(), walker.recordOffset, walker.recordLength);
+                    moved.put(walker.id, pack(written, walker.recordLength));
+                    written += walker.recordLength;
+                }
+            }
+            data.open(file);
+            positions = moved;
+            end = written;
+            garbage = 0;
+        } catch (IOException e) {
+            EventLog.warn("disk_store_compaction_failed", "error", e.getMessage());
+            if (file != null && file != data.file) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("customer file ends inside a record");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Walks the live records in file order through a window of positional reads, so concurrent
+     * walks share no file position. Caller holds a lock for the whole walk.
+     */
+    private final class RecordWalker {
+        private final long limit = end;
+        private long position;
+        ByteBuffer window = ByteBuffer.allocate(WINDOW).limit(0);
+        private long windowStart;
+        int id;
+        int recordOffset; // in window.array()
+        int recordLength;
+
+        boolean next() {
+            try {
+                while (position < limit) {
+                    fill(position, 4);
+                    int length = window.getInt((int) (position - windowStart));
+                    fill(position, length);
+                    int offset = (int) (position - windowStart);
+                    int recordId = window.getInt(offset + 4);
+                    long here = position;
+                    position += length;
+                    if (positions.get(recordId) == pack(here, length)) {
+                        id = recordId;
+                        recordOffset = offset;
+                        recordLength = length;
+                        return true;
+                    }
+                }
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Customer customer() {
+            Customer cached = cached(id);
+            return cached != null ? cached : decode(window.array(), recordOffset, recordLength);
+        }
+
+        private void fill(long from, int length) throws IOException {
+            if (from >= windowStart && from + length <= windowStart + window.limit()) {
+                return;
+            }
+            if (length > window.capacity()) {
+                window = ByteBuffer.allocate(length);
+            }
+            window.clear();
+            window.limit((int) Math.min(window.capacity(), limit - from));
+            readFully(data.channel, window, from);
+            window.flip();
+            windowStart = from;
+        }
+    }
+}
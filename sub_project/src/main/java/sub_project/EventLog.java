@@ -0,0 +1,96 @@
+package sub_project;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Structured, rate-limited log lines: {@code LEVEL event key=value ...} on standard output. Each
+ * event prints at most {@code subscription.log.perSecond} lines a second (default 5); the rest are
+ * counted and the next line that gets through carries {@code suppressed=N}. A burst of quota
+ * rejections or write failures therefore costs a counter increment per event, not console I/O.
+ */
+final class EventLog {
+    private static final int PER_SECOND = Integer.getInteger("subscription.log.perSecond", 5);
+    private static final ConcurrentHashMap<String, Limiter> LIMITERS = new ConcurrentHashMap<>();
+    private static final PrintStream OUT = System.out;
+
+    private EventLog() {
+    }
+
+    static void info(String event, Object... keyValues) {
+        log("INFO", event, keyValues);
+    }
+
+    static void warn(String event, Object... keyValues) {
+        log("WARN", event, keyValues);
+    }
+
+    static void error(String event, Object... keyValues) {
+        log("ERROR", event, keyValues);
+    }
+
+    private static void log(String level, String event, Object[] keyValues) {
+        long suppressed = LIMITERS.computeIfAbsent(event, e -> new Limiter()).tryAcquire();
+        if (suppressed < 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(64).append(level).append(' ').append(event);
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            line.append(' ').append(keyValues[i]).append('=');
+            appendValue(line, keyValues[i + 1]);
+        }
+        if (suppressed > 0) {
+            line.append(" suppressed=").append(suppressed);
+        }
+        OUT.println(line);
+    }
+
+    // Quotes values with spaces, quotes or '=' so every line splits cleanly into key=value pairs
+    private static void appendValue(StringBuilder line, Object value) {
+        String text = String.valueOf(value);
+        boolean plain = !text.isEmpty();
+        for (int i = 0; i < text.length() && plain; i++) {
+            char c = text.charAt(i);
+            plain = c > ' ' && c != '"' && c != '=';
+        }
+        if (plain) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n' || c == '\r') {
+                line.append(' ');
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /** Fixed one-second windows; lines over the limit only bump a counter. */
+    private static final class Limiter {
+        private final AtomicLong window = new AtomicLong(-1);
+        private final AtomicLong printed = new AtomicLong();
+        private final LongAdder suppressed = new LongAdder();
+
+        // The number of lines suppressed since the last one printed, or -1 if this line is suppressed
+        long tryAcquire() {
+            long second = System.nanoTime() / 1_000_000_000L;
+            long current = window.get();
+            if (current != second && window.compareAndSet(current, second)) {
+                printed.set(0);
+            }
+            if (printed.incrementAndGet() > PER_SECOND) {
+                suppressed.increment();
+                return -1;
+            }
+            return suppressed.sumThenReset();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package sub_project;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Streams customers into an .xlsx file with SXSSF: only {@code rowWindow} rows are kept in memory,
+ * older rows are flushed to (optionally gzip-compressed) temp files.
+ */
+class ExcelExporter {
+    static final int DEFAULT_ROW_WINDOW = 100;
+
+    // Days between the Excel epoch (1899-12-30, 1900 date system) and 1970-01-01.
+    private static final int EXCEL_EPOCH_OFFSET = 25569;
+
+    private final int rowWindow;
+    private final boolean compressTempFiles;
+
+    ExcelExporter(int rowWindow, boolean compressTempFiles) {
+        this.rowWindow = rowWindow;
+        this.compressTempFiles = compressTempFiles;
+    }
+
+    /** Writes the header and one row per customer; returns the number of customer rows. */
+    int export(Iterable<Customer> customers, String excelFileName) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(null, rowWindow, compressTempFiles);
+        try {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Sheet sheet = workbook.createSheet("Customers");
+            Row headerRow = sheet.createRow(0);
+            headerRow.createCell(0).setCellValue("ID");
+            headerRow.createCell(1).setCellValue("Name");
+            headerRow.createCell(2).setCellValue("Email");
+            headerRow.createCell(3).setCellValue("Subscription Type");
+            headerRow.createCell(4).setCellValue("Renewal Date");
+            headerRow.createCell(5).setCellValue("Canceled");
+            headerRow.createCell(6).setCellValue("Payment Method");
+
+            int rowNum = 1;
+            for (Customer customer : customers) {
+                Row row = sheet.createRow(rowNum++);
+                row.createCell(0).setCellValue(customer.getId());
+                row.createCell(1).setCellValue(customer.getName());
+                row.createCell(2).setCellValue(customer.getEmail());
+                row.createCell(3).setCellValue(customer.getSubscriptionType().name());
+                // Excel serial date straight from the epoch day, no string formatting per row
+                Cell date = row.createCell(4);
+                date.setCellValue(customer.getRenewalDate().toEpochDay() + EXCEL_EPOCH_OFFSET);
+                date.setCellStyle(dateStyle);
+                row.createCell(5).setCellValue(customer.isCanceled());
+                if (customer.getPaymentMethod() != null) {
+                    row.createCell(6).setCellValue(customer.getPaymentMethod().name());
+                }
+            }
+
+            try (FileOutputStream fileOut = new FileOutputStream(excelFileName)) {
+                workbook.write(fileOut);
+            }
+            return rowNum - 1;
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package sub_project;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads the first sheet of an .xlsx file with the XSSF event API: rows are streamed through a SAX
+ * handler instead of building the workbook DOM, and validated in batches. Nothing is applied to the
+ * live store here; the caller swaps in the returned store only if every row was valid.
+ */
+class ExcelImporter {
+    static final int BATCH_SIZE = 10_000;
+
+    // Days between the Excel epoch (1899-12-30, 1900 date system) and 1970-01-01.
+    private static final int EXCEL_EPOCH_OFFSET = 25569;
+    static final int COLUMNS = 7;
+
+    /** Thrown when a row cannot be turned into a customer; the import is aborted. */
+    static class InvalidRowException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidRowException(int rowNum, String message) {
+            super("row " + (rowNum + 1) + ": " + message);
+        }
+    }
+
+    /** Receives the non-blank data rows of a sheet, in order; {@code values} holds the first seven columns. */
+    interface RowHandler {
+        void row(int rowNum, String[] values);
+    }
+
+    private final CustomerStore staged;
+    private final List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+    private final List<Integer> batchRowNums = new ArrayList<>(BATCH_SIZE);
+    private int rows;
+
+    /** @param staged empty store that receives the parsed customers */
+    ExcelImporter(CustomerStore staged) {
+        this.staged = staged;
+    }
+
+    /** Parses the whole file into the staging store; throws on the first invalid row. */
+    CustomerStore read(String excelFileName) throws IOException {
+        readRows(excelFileName, (rowNum, values) -> {
+            batch.add(values);
+            batchRowNums.add(rowNum);
+            if (batch.size() >= BATCH_SIZE) {
+                flushBatch();
+            }
+        });
+        flushBatch();
+        return staged;
+    }
+
+    /** Streams the data rows of the first sheet to {@code handler} without validating them. */
+    static void readRows(String excelFileName, RowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(excelFileName, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("Workbook has no sheets");
+            }
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, new SheetHandler(handler), new DataFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    int getRowCount() {
+        return rows;
+    }
+
+    private static class SheetHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RowHandler handler;
+        private String[] values;
+
+        SheetHandler(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            values = new String[COLUMNS];
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (rowNum == 0 || isBlank(values)) {
+                return; // header or empty row
+            }
+            handler.row(rowNum, values);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = new CellReference(cellReference).getCol();
+            if (column < COLUMNS) {
+                values[column] = formattedValue;
+            }
+        }
+    }
+
+    private void flushBatch() {
+        for (int i = 0; i < batch.size(); i++) {
+            int rowNum = batchRowNums.get(i);
+            Customer customer = parseRow(rowNum, batch.get(i));
+            if (staged.get(customer.getId()) != null) {
+                throw new InvalidRowException(rowNum, "duplicate id " + customer.getId());
+            }
+            staged.add(customer);
+            rows++;
+        }
+        batch.clear();
+        batchRowNums.clear();
+    }
+
+    /** Turns one row of the export layout (ID, name, email, type, renewal date, canceled, payment method) into a customer. */
+    static Customer parseRow(int rowNum, String[] values) {
+        int id;
+        try {
+            id = (int) Double.parseDouble(required(rowNum, values[0], "ID"));
+        } catch (NumberFormatException e) {
+            throw new InvalidRowException(rowNum, "bad ID '" + values[0] + "'");
+        }
+        String name = required(rowNum, values[1], "name");
+        String email = required(rowNum, values[2], "email");
+        if (!email.contains("@") || !email.contains(".")) {
+            throw new InvalidRowException(rowNum, "bad email '" + email + "'");
+        }
+        SubscriptionType type = parseEnum(rowNum, SubscriptionType.class, required(rowNum, values[3], "subscription type"));
+        LocalDate renewalDate = parseDate(rowNum, required(rowNum, values[4], "renewal date"));
+        boolean canceled = Boolean.parseBoolean(values[5]);
+        PaymentMethod paymentMethod = null;
+        if (type != SubscriptionType.FREE) {
+            // Older exports have no payment method column
+            paymentMethod = isBlank(values[6]) ? PaymentMethod.CARD : parseEnum(rowNum, PaymentMethod.class, values[6]);
+        }
+        return new Customer(id, name, email, type, renewalDate, canceled, paymentMethod);
+    }
+
+    private static LocalDate parseDate(int rowNum, String value) {
+        try {
+            if (value.indexOf('-') < 0) {
+                return LocalDate.ofEpochDay((long) Double.parseDouble(value) - EXCEL_EPOCH_OFFSET);
+            }
+            return LocalDate.parse(value);
+        } catch (RuntimeException e) {
+            throw new InvalidRowException(rowNum, "bad renewal date '" + value + "'");
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(int rowNum, Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRowException(rowNum, "unknown " + type.getSimpleName() + " '" + value + "'");
+        }
+    }
+
+    private static String required(int rowNum, String value, String column) {
+        if (isBlank(value)) {
+            throw new InvalidRowException(rowNum, "missing " + column);
+        }
+        return value.trim();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    static boolean isBlank(String[] values) {
+        for (String value : values) {
+            if (!isBlank(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
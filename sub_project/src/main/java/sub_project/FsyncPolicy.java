@@ -0,0 +1,19 @@
+package sub_project;
+
+import java.util.Locale;
+
+/**
+ * When appended log records are forced to disk.
+ */
+public enum FsyncPolicy {
+    ALWAYS,   // fsync after every record
+    INTERVAL, // fsync periodically from the background thread and on awaitDurable()
+    NEVER;    // leave it to the operating system
+
+    static FsyncPolicy fromProperty(String value) {
+        if (value == null || value.isEmpty()) {
+            return INTERVAL;
+        }
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
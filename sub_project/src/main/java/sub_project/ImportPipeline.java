@@ -0,0 +1,413 @@
+package sub_project;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Merges many customer files, .csv in the customers.csv layout or .xlsx in the Excel export layout,
+ * into the live store without touching the customers already there. Three stages run on their own
+ * threads with bounded queues of row batches between them:
+ * <ol>
+ * <li>parse: one file per thread, rows as strings;
+ * <li>validate: rows into customers on {@code subscription.merge.threads} threads (default one per
+ * core); invalid rows are counted and skipped;
+ * <li>merge: on the calling thread, drops rows whose email is already stored or comes earlier in the
+ * merge, gives every other customer a new id and hands each batch to the target as one group commit.
+ * </ol>
+ * Memory stays at {@code subscription.merge.queueBatches} batches per queue plus one per thread,
+ * whatever the size of the files; only the email of every merged customer is kept, as a 64-bit hash
+ * next to the position of the row it came from. Emails are compared trimmed and case-insensitively.
+ * Of two rows with the same email the one from the earlier file, or the earlier row of one file, wins
+ * whatever order they arrive in: a merged customer is overwritten when an earlier row shows up late.
+ *
+ * <p>Progress is logged every {@code subscription.merge.progressSeconds} (default 5).
+ */
+class ImportPipeline {
+    static final int BATCH_SIZE = 5_000;
+
+    /**
+     * Receives each merged batch: customers to add and corrections, each carrying the id of a merged
+     * customer and the values it should have instead.
+     */
+    interface Target {
+        void apply(List<Customer> added, List<Customer> corrections);
+    }
+
+    private static final class RawBatch {
+        final int file;
+        final String[][] rows;
+        final int[] rowNums;
+        int size;
+
+        RawBatch(int file, int capacity) {
+            this.file = file;
+            this.rows = new String[capacity][];
+            this.rowNums = new int[capacity];
+        }
+
+        void add(int rowNum, String[] values) {
+            rows[size] = values;
+            rowNums[size++] = rowNum;
+        }
+    }
+
+    private static final class ValidBatch {
+        final Customer[] customers;
+        final long[] positions; // file << 32 | row, the order in which rows win
+        int size;
+
+        ValidBatch(int capacity) {
+            customers = new Customer[capacity];
+            positions = new long[capacity];
+        }
+    }
+
+    // The first row seen for an email and the id its customer got
+    private static final class Claim {
+        long position;
+        final int id;
+
+        Claim(long position, int id) {
+            this.position = position;
+            this.id = id;
+        }
+    }
+
+    private static final class Stage {
+        final String name;
+        final LongAdder rows = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    // Thrown in a stage thread once the pipeline is shut down
+    private static final class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final RawBatch RAW_END = new RawBatch(-1, 0);
+    private static final ValidBatch VALID_END = new ValidBatch(0);
+
+    private final IntSupplier ids;
+    private final Target target;
+    private final int threads = Math.max(1, Integer.getInteger("subscription.merge.threads", Runtime.getRuntime().availableProcessors()));
+    private final int queueBatches = Math.max(1, Integer.getInteger("subscription.merge.queueBatches", 4));
+    private final long progressNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Long.getLong("subscription.merge.progressSeconds", 5L)));
+
+    private final Stage parse = new Stage("parse");
+    private final Stage validate = new Stage("validate");
+    private final Stage merge = new Stage("merge");
+    private final BlockingQueue<RawBatch> parsed = new ArrayBlockingQueue<>(queueBatches);
+    private final BlockingQueue<ValidBatch> validated = new ArrayBlockingQueue<>(queueBatches);
+    private final AtomicInteger invalid = new AtomicInteger();
+    private final Map<Integer, String> failedFiles = new ConcurrentHashMap<>();
+    private final MergeResult result = new MergeResult();
+    private volatile RuntimeException failure;
+
+    /**
+     * @param ids    hands out the ids of merged customers
+     * @param target applies the merged batches, one at a time on the thread that calls {@link #run}
+     */
+    ImportPipeline(IntSupplier ids, Target target) {
+        this.ids = ids;
+        this.target = target;
+    }
+
+    /**
+     * Merges the files into the target; emails of {@code existing}, read once before the files, are
+     * skipped. A file that cannot be read is reported in the result, and the batches read from it
+     * before the failure are merged.
+     */
+    MergeResult run(List<String> fileNames, Iterable<Customer> existing) throws IOException, InterruptedException {
+        for (String fileName : fileNames) {
+            if (!new File(fileName).isFile()) {
+                throw new FileNotFoundException(fileName);
+            }
+            if (!isExcel(fileName) && !fileName.toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                throw new IOException(fileName + " must end in .csv or .xlsx");
+            }
+        }
+        long start = System.nanoTime();
+        long[] stored = emailHashes(existing);
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.max(1, Math.min(fileNames.size(), threads)), daemon("merge-parse"));
+        ExecutorService validators = Executors.newFixedThreadPool(threads, daemon("merge-validate"));
+        try {
+            for (int i = 0; i < threads; i++) {
+                validators.execute(() -> validate(fileNames));
+            }
+            AtomicInteger remaining = new AtomicInteger(fileNames.size());
+            for (int i = 0; i < fileNames.size(); i++) {
+                int file = i;
+                parsers.execute(() -> parse(file, fileNames.get(file), remaining));
+            }
+            if (fileNames.isEmpty()) {
+                for (int i = 0; i < threads; i++) {
+                    parsed.put(RAW_END);
+                }
+            }
+            mergeAll(stored, start);
+        } finally {
+            parsers.shutdownNow();
+            validators.shutdownNow();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+        result.rows = (int) parse.rows.sum();
+        result.invalid = invalid.get();
+        for (int i = 0; i < fileNames.size(); i++) {
+            if (failedFiles.containsKey(i)) {
+                result.failedFiles.put(fileNames.get(i), failedFiles.get(i));
+            }
+        }
+        for (Stage stage : new Stage[] {parse, validate, merge}) {
+            result.stages.put(stage.name, new long[] {stage.rows.sum(), stage.waitNanos.sum()});
+        }
+        EventLog.info("merge_done", "files", fileNames.size(), "rows", result.rows, "merged", result.merged,
+                "duplicates", result.duplicates, "corrected", result.corrected, "invalid", result.invalid,
+                "failedFiles", result.failedFiles.size(), "ms", result.getElapsedMillis(),
+                "parseRowsPerSecond", Math.round(result.getStageRowsPerSecond(parse.name)),
+                "validateRowsPerSecond", Math.round(result.getStageRowsPerSecond(validate.name)),
+                "mergeRowsPerSecond", Math.round(result.getStageRowsPerSecond(merge.name)));
+        return result;
+    }
+
+    private void parse(int file, String fileName, AtomicInteger remaining) {
+        RawBatch[] batch = {new RawBatch(file, BATCH_SIZE)};
+        boolean cancelled = false;
+        try {
+            ExcelImporter.RowHandler handler = (rowNum, values) -> {
+                batch[0].add(rowNum, values);
+                if (batch[0].size == BATCH_SIZE) {
+                    put(parsed, batch[0], parse);
+                    batch[0] = new RawBatch(file, BATCH_SIZE);
+                }
+            };
+            if (isExcel(fileName)) {
+                ExcelImporter.readRows(fileName, handler);
+            } else {
+                readCsv(fileName, handler);
+            }
+        } catch (Cancelled e) {
+            cancelled = true;
+        } catch (IOException | RuntimeException e) {
+            failedFiles.put(file, String.valueOf(e.getMessage()));
+            EventLog.warn("merge_file_failed", "file", fileName, "error", e.getMessage());
+        }
+        try {
+            if (!cancelled && batch[0].size > 0) {
+                put(parsed, batch[0], parse);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                for (int i = 0; i < threads; i++) {
+                    put(parsed, RAW_END, null);
+                }
+            }
+        } catch (Cancelled e) {
+            // shut down
+        }
+    }
+
+    // Rows in the customers.csv layout; blank lines and a header line are skipped
+    private static void readCsv(String fileName, ExcelImporter.RowHandler handler) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String line;
+            for (int rowNum = 0; (line = reader.readLine()) != null; rowNum++) {
+                if (line.trim().isEmpty() || rowNum == 0 && !Character.isDigit(line.charAt(0))) {
+                    continue;
+                }
+                handler.row(rowNum, Arrays.copyOf(line.split(",", -1), ExcelImporter.COLUMNS));
+            }
+        }
+    }
+
+    private void validate(List<String> fileNames) {
+        try {
+            while (true) {
+                RawBatch raw = take(parsed, validate);
+                if (raw == RAW_END) {
+                    break;
+                }
+                ValidBatch valid = new ValidBatch(raw.size);
+                for (int i = 0; i < raw.size; i++) {
+                    try {
+                        Customer customer = ExcelImporter.parseRow(raw.rowNums[i], raw.rows[i]);
+                        if (!SubscriptionManager.csvSafe(customer.getName()) || !SubscriptionManager.csvSafe(customer.getEmail())) {
+                            throw new ExcelImporter.InvalidRowException(raw.rowNums[i], "name and email cannot contain commas or line breaks");
+                        }
+                        valid.customers[valid.size] = customer;
+                        valid.positions[valid.size++] = (long) raw.file << 32 | raw.rowNums[i];
+                    } catch (ExcelImporter.InvalidRowException e) {
+                        invalid.incrementAndGet();
+                        synchronized (result) {
+                            result.error(fileNames.get(raw.file) + " " + e.getMessage());
+                        }
+                    }
+                }
+                put(validated, valid, validate);
+            }
+        } catch (Cancelled e) {
+            return;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        try {
+            put(validated, VALID_END, null);
+        } catch (Cancelled e) {
+            // shut down
+        }
+    }
+
+    private void mergeAll(long[] stored, long start) throws InterruptedException {
+        Map<Long, Claim> claims = new HashMap<>();
+        long lastProgress = System.nanoTime();
+        int ended = 0;
+        while (ended < threads) {
+            long waitStart = System.nanoTime();
+            ValidBatch batch = validated.poll(progressNanos, TimeUnit.NANOSECONDS);
+            long now = System.nanoTime();
+            merge.waitNanos.add(now - waitStart);
+            if (now - lastProgress >= progressNanos) {
+                lastProgress = now;
+                EventLog.info("merge_progress", "parsed", parse.rows.sum(), "validated", validate.rows.sum(),
+                        "merged", result.merged, "invalid", invalid.get(), "parseQueue", parsed.size(),
+                        "mergeQueue", validated.size(), "s", (now - start) / 1_000_000_000);
+            }
+            if (batch == VALID_END) {
+                ended++;
+            } else if (batch != null) {
+                mergeBatch(batch, stored, claims);
+            }
+        }
+    }
+
+    private void mergeBatch(ValidBatch batch, long[] stored, Map<Long, Claim> claims) {
+        List<Customer> added = new ArrayList<>(batch.size);
+        List<Customer> corrections = new ArrayList<>();
+        for (int i = 0; i < batch.size; i++) {
+            Customer row = batch.customers[i];
+            long key = emailHash(row.getEmail());
+            if (Arrays.binarySearch(stored, key) >= 0) {
+                result.duplicates++;
+                continue;
+            }
+            Claim claim = claims.get(key);
+            if (claim == null) {
+                Customer customer = withId(row, ids.getAsInt());
+                claims.put(key, new Claim(batch.positions[i], customer.getId()));
+                added.add(customer);
+                continue;
+            }
+            result.duplicates++;
+            if (batch.positions[i] < claim.position) {
+                claim.position = batch.positions[i];
+                corrections.add(withId(row, claim.id));
+            }
+        }
+        target.apply(added, corrections);
+        result.merged += added.size();
+        result.corrected += corrections.size();
+        merge.rows.add(batch.size);
+    }
+
+    private static Customer withId(Customer row, int id) {
+        return new Customer(id, row.getName(), row.getEmail(), row.getSubscriptionType(), row.getRenewalDate(), row.isCanceled(), row.getPaymentMethod());
+    }
+
+    // Sorted, for binary search
+    private static long[] emailHashes(Iterable<Customer> customers) {
+        long[] hashes = new long[1024];
+        int count = 0;
+        for (Customer customer : customers) {
+            if (customer.getEmail() == null) {
+                continue;
+            }
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = emailHash(customer.getEmail());
+        }
+        hashes = Arrays.copyOf(hashes, count);
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    // 64-bit FNV-1a of the trimmed, lower-cased email
+    static long emailHash(String email) {
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static boolean isExcel(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".xlsx");
+    }
+
+    // Counts the batch against the stage that produced it; a null stage counts nothing
+    private static <T> void put(BlockingQueue<T> queue, T item, Stage stage) {
+        long start = System.nanoTime();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        }
+        if (stage != null) {
+            stage.waitNanos.add(System.nanoTime() - start);
+            stage.rows.add(item instanceof RawBatch ? ((RawBatch) item).size : ((ValidBatch) item).size);
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue, Stage stage) {
+        long start = System.nanoTime();
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        } finally {
+            stage.waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,323 @@
+package sub_project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Object-per-customer store: a primary index by id plus secondary indexes on
+ * email, subscription type, payment method and canceled status.
+ *
+ * <p>Writers take the write side of a {@link StampedLock}. {@link #get} reads optimistically and
+ * only falls back to the read lock when a writer got in the way, so lookups do not block on
+ * writers in the common case.
+ */
+class IndexedCustomerStore implements CustomerStore {
+    private final StampedLock lock = new StampedLock();
+    private final IntHashMap<Customer> byId = new IntHashMap<>();
+    // Value is the Customer itself while an email is unique, a Set<Customer> once it is shared
+    private final Map<String, Object> byEmail = new HashMap<>();
+    private final Map<SubscriptionType, Set<Customer>> byType = new EnumMap<>(SubscriptionType.class);
+    private final Map<PaymentMethod, Set<Customer>> byPaymentMethod = new EnumMap<>(PaymentMethod.class);
+    private final Set<Customer> canceled = new LinkedHashSet<>();
+    private volatile int size;
+    private volatile int maxId;
+
+    @Override
+    public int size() { return size; }
+    @Override
+    public boolean isEmpty() { return size == 0; }
+    @Override
+    public int getMaxId() { return maxId; }
+
+    @Override
+    public Customer get(int id) {
+        long stamp = lock.tryOptimisticRead();
+        Customer customer = byId.get(id);
+        if (lock.validate(stamp)) {
+            return customer;
+        }
+        stamp = lock.readLock();
+        try {
+            return byId.get(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Customer add(Customer customer) {
+        long stamp = lock.writeLock();
+        try {
+            Customer previous = byId.put(customer.getId(), customer);
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(customer);
+            maxId = Math.max(maxId, customer.getId());
+            size = byId.size();
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Customer remove(int id) {
+        long stamp = lock.writeLock();
+        try {
+            Customer customer = byId.remove(id);
+            if (customer != null) {
+                unindex(customer);
+            }
+            size = byId.size();
+            return customer;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            byId.clear();
+            byEmail.clear();
+            byType.clear();
+            byPaymentMethod.clear();
+            canceled.clear();
+            maxId = 0;
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Iterator<Customer> iterator() {
+        return values().iterator();
+    }
+
+    @Override
+    public List<Customer> values() {
+        List<Customer> list;
+        long stamp = lock.readLock();
+        try {
+            list = byId.values();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        list.sort(Comparator.comparingInt(Customer::getId));
+        return list;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Customer> findByEmail(String email) {
+        long stamp = lock.readLock();
+        try {
+            Object entry = byEmail.get(email);
+            if (entry instanceof Customer) {
+                return Collections.singletonList((Customer) entry);
+            }
+            return copyOf((Set<Customer>) entry);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void setListener(CustomerListener listener) {
+        for (Customer customer : values()) {
+            customer.setListener(listener);
+        }
+    }
+
+    @Override
+    public List<Customer> findByType(SubscriptionType type) {
+        long stamp = lock.readLock();
+        try {
+            return copyOf(byType.get(type));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<Customer> findByPaymentMethod(PaymentMethod paymentMethod) {
+        long stamp = lock.readLock();
+        try {
+            return copyOf(byPaymentMethod.get(paymentMethod));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<Customer> findCanceled() {
+        long stamp = lock.readLock();
+        try {
+            return copyOf(canceled);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public <R> R scan(CustomerQuery query, Function<Stream<Customer>, R> scan) {
+        long stamp = lock.readLock();
+        try {
+            // The smallest index bucket the query pins down, or every customer
+            Collection<Customer> candidates = null;
+            if (query.getType() != null) {
+                candidates = smaller(candidates, byType.get(query.getType()));
+            }
+            if (query.getPaymentMethod() != null) {
+                candidates = smaller(candidates, byPaymentMethod.get(query.getPaymentMethod()));
+            }
+            if (Boolean.TRUE.equals(query.getCanceled())) {
+                candidates = smaller(candidates, canceled);
+            }
+            return scan.apply(candidates == null ? byId.stream() : candidates.stream());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static Collection<Customer> smaller(Collection<Customer> current, Set<Customer> bucket) {
+        if (bucket == null) {
+            return Collections.emptySet();
+        }
+        return current == null || bucket.size() < current.size() ? bucket : current;
+    }
+
+    @Override
+    public void reindex(Customer customer, CustomerField field, Object oldValue) {
+        long stamp = lock.writeLock();
+        try {
+            reindexLocked(customer, field, oldValue);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void reindexLocked(Customer customer, CustomerField field, Object oldValue) {
+        if (byId.get(customer.getId()) != customer) {
+            return;
+        }
+        switch (field) {
+            case EMAIL:
+                removeEmail((String) oldValue, customer);
+                addEmail(customer.getEmail(), customer);
+                break;
+            case SUBSCRIPTION_TYPE:
+                removeFrom(byType, (SubscriptionType) oldValue, customer);
+                addTo(byType, customer.getSubscriptionType(), customer);
+                break;
+            case PAYMENT_METHOD:
+                removeFrom(byPaymentMethod, (PaymentMethod) oldValue, customer);
+                addTo(byPaymentMethod, customer.getPaymentMethod(), customer);
+                break;
+            case CANCELED:
+                if (customer.isCanceled()) {
+                    canceled.add(customer);
+                } else {
+                    canceled.remove(customer);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void index(Customer customer) {
+        addEmail(customer.getEmail(), customer);
+        addTo(byType, customer.getSubscriptionType(), customer);
+        addTo(byPaymentMethod, customer.getPaymentMethod(), customer);
+        if (customer.isCanceled()) {
+            canceled.add(customer);
+        }
+    }
+
+    private void unindex(Customer customer) {
+        removeEmail(customer.getEmail(), customer);
+        removeFrom(byType, customer.getSubscriptionType(), customer);
+        removeFrom(byPaymentMethod, customer.getPaymentMethod(), customer);
+        canceled.remove(customer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addEmail(String email, Customer customer) {
+        if (email == null) {
+            return;
+        }
+        Object entry = byEmail.putIfAbsent(email, customer);
+        if (entry == null || entry == customer) {
+            return;
+        }
+        if (entry instanceof Customer) {
+            Set<Customer> shared = new LinkedHashSet<>();
+            shared.add((Customer) entry);
+            shared.add(customer);
+            byEmail.put(email, shared);
+        } else {
+            ((Set<Customer>) entry).add(customer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeEmail(String email, Customer customer) {
+        if (email == null) {
+            return;
+        }
+        Object entry = byEmail.get(email);
+        if (entry == customer) {
+            byEmail.remove(email);
+        } else if (entry instanceof Set) {
+            Set<Customer> shared = (Set<Customer>) entry;
+            shared.remove(customer);
+            if (shared.size() == 1) {
+                byEmail.put(email, shared.iterator().next());
+            }
+        }
+    }
+
+    private static <K> void addTo(Map<K, Set<Customer>> index, K key, Customer customer) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(customer);
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Customer>> index, K key, Customer customer) {
+        if (key == null) {
+            return;
+        }
+        Set<Customer> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(customer);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static List<Customer> copyOf(Set<Customer> bucket) {
+        if (bucket == null) {
+            return Collections.emptyList();
+        }
+        List<Customer> list = new ArrayList<>(bucket);
+        list.sort(Comparator.comparingInt(Customer::getId));
+        return list;
+    }
+}
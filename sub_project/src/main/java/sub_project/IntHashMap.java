@@ -0,0 +1,182 @@
+package sub_project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Open-addressing hash map keyed by a primitive int, so ids are never boxed.
+ * Uses linear probing with backward-shift deletion (no tombstones). Not thread-safe; callers
+ * synchronize writes, and {@link #get} tolerates running concurrently with a writer.
+ */
+class IntHashMap<V> {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    IntHashMap() {
+        this(16);
+    }
+
+    IntHashMap(int expectedSize) {
+        int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR));
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return Math.max(capacity, 8);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        // Reads the tables into locals and bounds the probe so that an optimistic reader racing
+        // with a writer gets a wrong answer (discarded after validation) rather than an exception.
+        int[] k = keys;
+        Object[] v = values;
+        int m = Math.min(k.length, v.length) - 1;
+        int slot = mix(key) & m;
+        Object value;
+        for (int probes = 0; probes <= m && (value = v[slot]) != null; probes++) {
+            if (k[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & m;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /** Stores the value (which must not be null) and returns the previous one, if any. */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+        int slot = mix(key) & mask;
+        Object existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return (V) existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = mix(key) & mask;
+        Object existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key) {
+                shiftBack(slot);
+                size--;
+                return (V) existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    // Moves following entries of the probe chain into the freed slot so lookups never need tombstones.
+    private void shiftBack(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            Object value = values[slot];
+            if (value == null) {
+                break;
+            }
+            int home = mix(keys[slot]) & mask;
+            boolean movable = free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+            if (movable) {
+                keys[free] = keys[slot];
+                values[free] = value;
+                free = slot;
+            }
+        }
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /** The values in table order without copying; callers hold off writers while the stream is consumed. */
+    @SuppressWarnings("unchecked")
+    public Stream<V> stream() {
+        return Arrays.stream(values).filter(Objects::nonNull).map(value -> (V) value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+        return list;
+    }
+}
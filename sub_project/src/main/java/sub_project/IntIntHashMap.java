@@ -0,0 +1,125 @@
+package sub_project;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from int to non-negative int, with no boxing at all; used as the id to row
+ * index of the columnar store. Linear probing with backward-shift deletion, like {@link IntHashMap}.
+ * Not thread-safe; {@link #get} tolerates running concurrently with a writer.
+ */
+class IntIntHashMap {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private int[] values; // value + 1, 0 marks a free slot
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    IntIntHashMap() {
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() { return size; }
+
+    /** The value for {@code key}, or -1 if absent. */
+    public int get(int key) {
+        int[] k = keys;
+        int[] v = values;
+        int m = Math.min(k.length, v.length) - 1;
+        int slot = mix(key) & m;
+        for (int probes = 0; probes <= m && v[slot] != 0; probes++) {
+            if (k[slot] == key) {
+                return v[slot] - 1;
+            }
+            slot = (slot + 1) & m;
+        }
+        return -1;
+    }
+
+    public void put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative values are not supported");
+        }
+        int slot = mix(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value + 1;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    public int remove(int key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                int value = values[slot] - 1;
+                shiftBack(slot);
+                size--;
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void shiftBack(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == 0) {
+                break;
+            }
+            int home = mix(keys[slot]) & mask;
+            boolean movable = free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+            if (movable) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+        }
+        keys[free] = 0;
+        values[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (values[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+}
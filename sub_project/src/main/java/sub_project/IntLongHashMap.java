@@ -0,0 +1,137 @@
+package sub_project;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from int to non-negative long, with no boxing at all; used as the id to
+ * record position index of the disk store. Same layout and probing as {@link IntIntHashMap}.
+ * Not thread-safe.
+ */
+class IntLongHashMap {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private long[] values; // value + 1, 0 marks a free slot
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    IntLongHashMap() {
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() { return size; }
+
+    /** The value for {@code key}, or -1 if absent. */
+    public long get(int key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                return values[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Stores the value and returns the previous one, or -1 if there was none. */
+    public long put(int key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative values are not supported");
+        }
+        int slot = mix(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                long previous = values[slot] - 1;
+                values[slot] = value + 1;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value + 1;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return -1;
+    }
+
+    public long remove(int key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                long value = values[slot] - 1;
+                shiftBack(slot);
+                size--;
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void shiftBack(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == 0) {
+                break;
+            }
+            int home = mix(keys[slot]) & mask;
+            boolean movable = free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+            if (movable) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+        }
+        keys[free] = 0;
+        values[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (values[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /** Every key, in no particular order. */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+}
@@ -0,0 +1,248 @@
+package sub_project;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON for the HTTP API. {@link #parse} returns {@code Map<String, Object>} for objects,
+ * {@code List<Object>} for arrays, and String, Long, Double, Boolean or null for values; the
+ * {@code append} helpers write values into a StringBuilder.
+ */
+final class Json {
+    private static final int MAX_DEPTH = 32;
+
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.value(0);
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private Object value(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("nested too deeply");
+        }
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("unexpected end of input");
+        }
+        char c = text.charAt(pos);
+        if (c == '{') {
+            return object(depth);
+        } else if (c == '[') {
+            return array(depth);
+        } else if (c == '"') {
+            return string();
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            return number();
+        } else if (text.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        } else if (text.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        } else if (text.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        throw error("unexpected character '" + c + "'");
+    }
+
+    private Map<String, Object> object(int depth) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("expected a field name");
+            }
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value(depth + 1));
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array(int depth) {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(value(depth + 1));
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        pos++;
+        StringBuilder sb = new StringBuilder();
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                break;
+            }
+            char escape = text.charAt(pos++);
+            switch (escape) {
+                case '"': case '\\': case '/': sb.append(escape); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("bad unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("bad escape '\\" + escape + "'");
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean decimal = false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        try {
+            return decimal ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw error("bad number " + number);
+        }
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Bad JSON at offset " + pos + ": " + message);
+    }
+
+    static StringBuilder appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    /** Appends {@code value} as a JSON string, or null; for enums, dates and other toString() values. */
+    static StringBuilder appendValue(StringBuilder sb, Object value) {
+        return appendString(sb, value == null ? null : value.toString());
+    }
+
+    static StringBuilder appendCustomer(StringBuilder sb, Customer c) {
+        sb.append("{\"id\":").append(c.getId()).append(",\"name\":");
+        appendString(sb, c.getName()).append(",\"email\":");
+        appendString(sb, c.getEmail()).append(",\"subscriptionType\":");
+        appendValue(sb, c.getSubscriptionType()).append(",\"renewalDate\":");
+        appendValue(sb, c.getRenewalDate()).append(",\"canceled\":").append(c.isCanceled()).append(",\"paymentMethod\":");
+        return appendValue(sb, c.getPaymentMethod()).append('}');
+    }
+
+    static StringBuilder appendBulkResult(StringBuilder sb, BulkResult result) {
+        sb.append("{\"accepted\":").append(result.count(BulkResult.Outcome.ACCEPTED))
+                .append(",\"rejectedByQuota\":").append(result.count(BulkResult.Outcome.REJECTED_BY_QUOTA))
+                .append(",\"invalid\":").append(result.count(BulkResult.Outcome.INVALID))
+                .append(",\"notFound\":").append(result.count(BulkResult.Outcome.NOT_FOUND))
+                .append(",\"items\":[");
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"outcome\":\"").append(result.getOutcome(i)).append("\",\"id\":").append(result.getId(i));
+            if (result.getReason(i) != null) {
+                appendString(sb.append(",\"reason\":"), result.getReason(i));
+            }
+            sb.append('}');
+        }
+        return sb.append("]}");
+    }
+}
@@ -0,0 +1,93 @@
+package sub_project;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in nanoseconds. Buckets are log-linear, four per power of two, so a
+ * reported percentile is at most 25% above the true value; recording is a few striped-counter
+ * increments and never allocates, which keeps it cheap enough for lookups.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = SUB_BUCKETS * 62;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucket(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * (exponent - 1) + sub;
+    }
+
+    // Largest value that falls into the bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /** The value below which {@code fraction} of the recorded values fall, 0 when nothing was recorded. */
+    long percentile(double fraction) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+}
@@ -1,25 +1,53 @@
 package sub_project;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
 public class Main {
-    private static SubscriptionManager manager = new SubscriptionManager();
+    private static SubscriptionManager manager;
     private static Scanner scanner = new Scanner(System.in);
     private static String role;
 
-    public static void main(String[] args) {
+    /**
+     * {@code serve [port]} runs the HTTP/JSON service instead of the console menu; {@code merge file...}
+     * merges the files into the customers and exits; {@code replica [dir]} runs a read-only menu over
+     * a {@link SubscriptionReplica} of the customers.csv in the working directory.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("replica")) {
+            replica(new File(args.length > 1 ? args[1] : System.getProperty("subscription.replica.dir", "replica")));
+            return;
+        }
+        manager = new SubscriptionManager();
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("subscription.http.port", 8080));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("merge")) {
+            mergeFiles(Arrays.asList(args).subList(1, args.length));
+            manager.close();
+            return;
+        }
+
         System.out.print("Enter role (admin/user): ");
         role = scanner.nextLine().toLowerCase();
 
         if (!role.equals("admin") && !role.equals("user")) {
             System.out.println("Invalid role. Exiting.");
+            manager.close();
             return;
         }
 
-        while (true) {
+        boolean running = true;
+        while (running) {
             System.out.println("\n1. Add Customer");
             System.out.println("2. View All Customers");
             System.out.println("3. View Customer");
@@ -32,6 +60,10 @@ public class Main {
             }
             System.out.println("9. Cancel Subscription");
             System.out.println("10. Exit");
+            if (role.equals("admin")) {
+                System.out.println("11. Metrics");
+                System.out.println("12. Merge files");
+            }
             System.out.print("Choose: ");
             int choice = scanner.nextInt();
             scanner.nextLine();
@@ -54,12 +86,83 @@ public class Main {
                 exportToExcel();
             } else if (choice == 9) {
                 cancelSubscription();
+            } else if (choice == 11 && role.equals("admin")) {
+                System.out.print(manager.dumpMetrics());
+            } else if (choice == 12 && role.equals("admin")) {
+                System.out.print("Enter .csv/.xlsx file names to merge, separated by spaces: ");
+                mergeFiles(Arrays.asList(scanner.nextLine().trim().split("\\s+")));
             } else if (choice == 10) {
-                System.out.println("Возврат в предыдущее меню...");
+                running = false;
             } else {
                 System.out.println("Wrong choice or insufficient privileges.");
             }
         }
+        manager.close();
+    }
+
+    private static void serve(int port) throws IOException {
+        SubscriptionServer server = new SubscriptionServer(manager, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            manager.close();
+        }, "shutdown"));
+        server.start();
+    }
+
+    private static void replica(File dir) {
+        SubscriptionReplica replica = new SubscriptionReplica("customers.csv", dir);
+        boolean running = true;
+        while (running) {
+            System.out.println("\n1. View All Customers");
+            System.out.println("2. View Customer");
+            System.out.println("3. Reports");
+            System.out.println("4. Export to CSV");
+            System.out.println("5. Export to Excel");
+            System.out.println("6. Replication status");
+            System.out.println("7. Exit");
+            System.out.print("Choose: ");
+            int choice = scanner.nextInt();
+            scanner.nextLine();
+
+            if (choice == 1) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+                try {
+                    if (replica.writeCustomers(new CustomerQuery(), out) == 0) {
+                        out.flush();
+                        System.out.println("No customers.");
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    System.out.println("Error listing customers: " + e.getMessage());
+                }
+            } else if (choice == 2) {
+                System.out.print("Enter ID: ");
+                int id = scanner.nextInt();
+                scanner.nextLine();
+                Customer c = replica.getCustomerById(id);
+                System.out.println(c == null ? "Not found." : c);
+            } else if (choice == 3) {
+                replica.generateReports();
+            } else if (choice == 4 || choice == 5) {
+                System.out.print("Enter file name to export: ");
+                String fileName = scanner.nextLine();
+                try {
+                    int rows = choice == 4 ? replica.exportToCsv(fileName) : replica.exportToExcel(fileName);
+                    System.out.println("Exported " + rows + " rows to " + fileName);
+                } catch (IOException e) {
+                    System.out.println("Error exporting: " + e.getMessage());
+                }
+            } else if (choice == 6) {
+                System.out.println("Applied sequence: " + replica.getAppliedSequence());
+                System.out.println("Lag: " + replica.getLagMillis() + " ms, " + replica.getBytesBehind() + " bytes behind"
+                        + (replica.isCaughtUp() ? " (caught up)" : ""));
+            } else if (choice == 7) {
+                running = false;
+            } else {
+                System.out.println("Wrong choice.");
+            }
+        }
+        replica.close();
     }
 
     private static void addCustomer() {
@@ -105,19 +208,25 @@ public class Main {
             paymentMethod = PaymentMethod.values()[methodChoice - 1];
         }
 
-        manager.addCustomer(name, email, subscriptionType, date, paymentMethod);
-        System.out.println("Customer added.");
+        BulkResult result = manager.addCustomer(name, email, subscriptionType, date, paymentMethod);
+        if (result.getOutcome(0) == BulkResult.Outcome.ACCEPTED) {
+            System.out.println("Customer added with ID: " + result.getId(0));
+        } else {
+            System.out.println("Customer not added: " + result.getReason(0) + ".");
+        }
     }
 
     private static void viewAllCustomers() {
-        List<Customer> customers = manager.getAllCustomers();
-        if (customers.isEmpty()) {
-            System.out.println("No customers.");
-        } else {
-            for (Customer c : customers) {
-                System.out.println(c);
-                System.out.println();
+        // Not closed: closing would close System.out
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            int written = manager.writeCustomers(new CustomerQuery(), out);
+            out.flush();
+            if (written == 0) {
+                System.out.println("No customers.");
             }
+        } catch (IOException e) {
+            System.out.println("Error listing customers: " + e.getMessage());
         }
     }
 
@@ -188,7 +297,6 @@ public class Main {
             System.out.println("Wrong choice.");
             return;
         }
-        manager.saveCustomers();
         System.out.println("Updated.");
     }
 
@@ -205,6 +313,24 @@ public class Main {
         manager.importFromExcel(fileName);
     }
 
+    private static void mergeFiles(List<String> fileNames) {
+        try {
+            MergeResult result = manager.mergeFiles(fileNames);
+            System.out.println("Merged " + result.getMerged() + " of " + result.getRows() + " rows in " + result.getElapsedMillis() + " ms ("
+                    + result.getDuplicates() + " duplicates, " + result.getInvalid() + " invalid)");
+            for (String stage : result.getStages()) {
+                System.out.printf("  %s: %d rows, %.0f rows/s, waited %d ms%n", stage, result.getStageRows(stage),
+                        result.getStageRowsPerSecond(stage), result.getStageWaitMillis(stage));
+            }
+            result.getFailedFiles().forEach((file, error) -> System.out.println("  could not read " + file + ": " + error));
+            for (String error : result.getErrors()) {
+                System.out.println("  " + error);
+            }
+        } catch (IOException e) {
+            System.out.println("Error merging files: " + e.getMessage());
+        }
+    }
+
     private static void exportToExcel() {
         System.out.print("Enter Excel file name to export: ");
         String fileName = scanner.nextLine();
@@ -221,7 +347,6 @@ public class Main {
             return;
         }
         customer.setCanceled(true);
-        manager.saveCustomers();
         System.out.println("Subscription canceled for customer ID: " + id);
     }
 }
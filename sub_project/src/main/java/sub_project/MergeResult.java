@@ -0,0 +1,83 @@
+package sub_project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of {@link SubscriptionManager#mergeFiles}: what happened to the rows read, files that
+ * could not be read, a sample of the invalid rows and the throughput of each pipeline stage.
+ */
+public class MergeResult {
+    private static final int MAX_ERRORS = 20;
+
+    int rows;
+    int invalid;
+    int duplicates;
+    int merged;
+    int corrected;
+    long elapsedNanos;
+    final Map<String, String> failedFiles = new LinkedHashMap<>();
+    final List<String> errors = new ArrayList<>();
+    final Map<String, long[]> stages = new LinkedHashMap<>(); // stage -> rows, nanos spent waiting on queues
+
+    /** Data rows read from all files. */
+    public int getRows() { return rows; }
+
+    /** Rows skipped because a field was missing or malformed. */
+    public int getInvalid() { return invalid; }
+
+    /** Rows skipped because their email was already stored or came earlier in the merge. */
+    public int getDuplicates() { return duplicates; }
+
+    /** Customers added, each under a newly assigned id. */
+    public int getMerged() { return merged; }
+
+    /**
+     * Times a merged customer was overwritten by a row with its email from an earlier file, or from
+     * earlier in the same file, that reached the merge stage later.
+     */
+    public int getCorrected() { return corrected; }
+
+    public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+    /** File name to the reason it could not be read; rows read before the failure are merged. */
+    public Map<String, String> getFailedFiles() { return Collections.unmodifiableMap(failedFiles); }
+
+    /** The first invalid rows, as {@code file row N: reason}. */
+    public List<String> getErrors() { return Collections.unmodifiableList(errors); }
+
+    /** Names of the pipeline stages in order: parse, validate, merge. */
+    public List<String> getStages() { return new ArrayList<>(stages.keySet()); }
+
+    /** Rows through the stage: read by parse, found valid by validate, deduplicated by merge. */
+    public long getStageRows(String stage) { return stages.get(stage)[0]; }
+
+    /** {@link #getStageRows} per second of the whole run. */
+    public double getStageRowsPerSecond(String stage) {
+        return elapsedNanos == 0 ? 0 : stages.get(stage)[0] * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /** Time the stage's threads spent waiting on a full or empty queue, added up over the threads. */
+    public long getStageWaitMillis(String stage) { return stages.get(stage)[1] / 1_000_000; }
+
+    void error(String message) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(message);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MergeResult{rows=").append(rows).append(", merged=").append(merged)
+                .append(", duplicates=").append(duplicates).append(", corrected=").append(corrected)
+                .append(", invalid=").append(invalid).append(", failedFiles=").append(failedFiles.size())
+                .append(", ms=").append(getElapsedMillis());
+        for (String stage : stages.keySet()) {
+            sb.append(", ").append(stage).append("RowsPerSecond=").append(Math.round(getStageRowsPerSecond(stage)));
+        }
+        return sb.append('}').toString();
+    }
+}
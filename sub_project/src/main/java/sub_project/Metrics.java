@@ -0,0 +1,186 @@
+package sub_project;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation for one {@link SubscriptionManager}: a latency histogram per {@link Operation},
+ * rows moved by imports and exports, quota rejections per subscription type, the store size and
+ * the store's own counters.
+ * Read it with {@link #dump} or over JMX under {@code sub_project:type=SubscriptionManager,name=<file>};
+ * {@code -Dsubscription.jmx=false} skips the registration.
+ */
+final class Metrics implements SubscriptionMetricsMXBean {
+    enum Operation { LOAD, SAVE, ADD, LOOKUP, IMPORT, EXPORT }
+
+    private final Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+    private final LongAdder[] quotaRejections = new LongAdder[SubscriptionType.values().length];
+    private final LongAdder customerRateLimited = new LongAdder();
+    private final Supplier<CustomerStore> store;
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    Metrics(Supplier<CustomerStore> store) {
+        this.store = store;
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationStats());
+        }
+        for (int i = 0; i < quotaRejections.length; i++) {
+            quotaRejections[i] = new LongAdder();
+        }
+    }
+
+    /** Records an operation that started at {@code startNanos}, a {@link System#nanoTime} reading. */
+    void record(Operation operation, long startNanos) {
+        operations.get(operation).latency.record(System.nanoTime() - startNanos);
+    }
+
+    /** Records an import or export of {@code rows} rows that started at {@code startNanos}. */
+    void recordRows(Operation operation, int rows, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        OperationStats stats = operations.get(operation);
+        stats.latency.record(elapsed);
+        stats.rows.add(rows);
+        stats.rowNanos.add(elapsed);
+    }
+
+    void quotaRejected(SubscriptionType type, int count) {
+        quotaRejections[type.ordinal()].add(count);
+    }
+
+    void customerRateLimited(int count) {
+        customerRateLimited.add(count);
+    }
+
+    @Override
+    public long getCustomerRateLimited() {
+        return customerRateLimited.sum();
+    }
+
+    @Override
+    public int getStoreSize() {
+        return store.get().size();
+    }
+
+    @Override
+    public Map<String, Long> getStoreStats() {
+        return store.get().stats();
+    }
+
+    @Override
+    public Map<String, Long> getQuotaRejections() {
+        Map<String, Long> rejections = new LinkedHashMap<>();
+        for (SubscriptionType type : SubscriptionType.values()) {
+            rejections.put(type.name(), quotaRejections[type.ordinal()].sum());
+        }
+        return rejections;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("store.size ").append(getStoreSize()).append('\n');
+        getStoreStats().forEach((name, value) -> sb.append("store.").append(name).append(' ').append(value).append('\n'));
+        for (SubscriptionType type : SubscriptionType.values()) {
+            sb.append("quota.rejected.").append(type.name().toLowerCase(Locale.ROOT)).append(' ')
+                    .append(quotaRejections[type.ordinal()].sum()).append('\n');
+        }
+        sb.append("quota.customerRateLimited ").append(customerRateLimited.sum()).append('\n');
+        for (Operation operation : Operation.values()) {
+            OperationStats stats = operations.get(operation);
+            String prefix = operation.name().toLowerCase(Locale.ROOT);
+            sb.append(String.format(Locale.ROOT, "%s.count %d%n%s.latency.us mean=%.1f p50=%.1f p99=%.1f p999=%.1f max=%.1f%n",
+                    prefix, stats.getCount(), prefix, stats.getMeanMicros(), stats.getP50Micros(), stats.getP99Micros(),
+                    stats.getP999Micros(), stats.getMaxMicros()));
+            if (operation == Operation.IMPORT || operation == Operation.EXPORT) {
+                sb.append(String.format(Locale.ROOT, "%s.rows %d%n%s.rowsPerSecond %.0f%n",
+                        prefix, stats.rows.sum(), prefix, stats.getRowsPerSecond()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Registers the MBeans under {@code name}; a name already taken by another manager is skipped. */
+    void register(String name) {
+        if (!Boolean.parseBoolean(System.getProperty("subscription.jmx", "true"))) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String base = "sub_project:type=SubscriptionManager,name=" + ObjectName.quote(name);
+        try {
+            ObjectName objectName = new ObjectName(base);
+            server.registerMBean(this, objectName);
+            registered.add(objectName);
+            for (Operation operation : Operation.values()) {
+                objectName = new ObjectName(base + ",operation=" + operation.name().toLowerCase(Locale.ROOT));
+                server.registerMBean(operations.get(operation), objectName);
+                registered.add(objectName);
+            }
+        } catch (JMException e) {
+            EventLog.warn("jmx_register_failed", "name", name, "error", e.getMessage());
+        }
+    }
+
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+    private static final class OperationStats implements OperationMetricsMXBean {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder rows = new LongAdder();
+        final LongAdder rowNanos = new LongAdder();
+
+        @Override
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.getMeanNanos() / 1_000.0;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return latency.percentile(0.50) / 1_000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return latency.percentile(0.99) / 1_000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return latency.percentile(0.999) / 1_000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return latency.getMaxNanos() / 1_000.0;
+        }
+
+        @Override
+        public double getRowsPerSecond() {
+            long nanos = rowNanos.sum();
+            return nanos == 0 ? 0 : rows.sum() * 1_000_000_000.0 / nanos;
+        }
+    }
+}
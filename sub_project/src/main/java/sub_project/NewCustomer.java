@@ -0,0 +1,29 @@
+package sub_project;
+
+import java.time.LocalDate;
+
+/**
+ * Details of a customer to add through {@link SubscriptionManager#addCustomers}; the id is assigned
+ * when the customer is accepted.
+ */
+public class NewCustomer {
+    private final String name;
+    private final String email;
+    private final SubscriptionType subscriptionType;
+    private final LocalDate renewalDate;
+    private final PaymentMethod paymentMethod;
+
+    public NewCustomer(String name, String email, SubscriptionType subscriptionType, LocalDate renewalDate, PaymentMethod paymentMethod) {
+        this.name = name;
+        this.email = email;
+        this.subscriptionType = subscriptionType;
+        this.renewalDate = renewalDate;
+        this.paymentMethod = paymentMethod;
+    }
+
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+    public SubscriptionType getSubscriptionType() { return subscriptionType; }
+    public LocalDate getRenewalDate() { return renewalDate; }
+    public PaymentMethod getPaymentMethod() { return paymentMethod; }
+}
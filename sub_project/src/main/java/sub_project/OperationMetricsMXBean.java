@@ -0,0 +1,19 @@
+package sub_project;
+
+/** Latency and throughput of one {@link SubscriptionManager} operation, in microseconds. */
+public interface OperationMetricsMXBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    /** Rows imported or exported per second of operation time; 0 for operations that move no rows. */
+    double getRowsPerSecond();
+}
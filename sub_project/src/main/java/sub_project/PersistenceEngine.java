@@ -0,0 +1,408 @@
+package sub_project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Durable storage for customers: a binary {@link CustomerSnapshot} plus a write-ahead log of every
+ * mutation since that snapshot. Callers only append records to an in-memory buffer; a background
+ * writer thread lets a burst of changes settle for {@code subscription.flushDelayMs} and then
+ * writes it with a single call, so a caller's latency does not depend on the disk or file sizes.
+ * {@link #flush} and {@link #awaitDurable} are the barriers for callers that need them.
+ *
+ * <p>The fsync policy decides when written records are forced to disk: after every write for
+ * {@link FsyncPolicy#ALWAYS}, which also makes each mutating caller wait until its record is
+ * durable (concurrent callers share one fsync), every {@code subscription.fsyncIntervalMs} for
+ * {@link FsyncPolicy#INTERVAL}, and never for {@link FsyncPolicy#NEVER}. The log is folded into a
+ * fresh snapshot once it grows past the compaction threshold.
+ *
+ * <p>Settings (system properties): {@code subscription.fsync} (ALWAYS, INTERVAL, NEVER),
+ * {@code subscription.fsyncIntervalMs}, {@code subscription.flushDelayMs},
+ * {@code subscription.compactBytes}, {@code subscription.compactCheckSeconds}.
+ */
+class PersistenceEngine implements AutoCloseable {
+    private final File snapshotFile;
+    private final File logFile;
+    private final FsyncPolicy fsyncPolicy = FsyncPolicy.fromProperty(System.getProperty("subscription.fsync"));
+    private final long fsyncIntervalMs = Long.getLong("subscription.fsyncIntervalMs", 1000L);
+    private final long flushDelayMs = Long.getLong("subscription.flushDelayMs", 10L);
+    private final long compactBytes = Long.getLong("subscription.compactBytes", 4L * 1024 * 1024);
+    private final long compactCheckSeconds = Long.getLong("subscription.compactCheckSeconds", 30L);
+
+    private final Supplier<Iterable<Customer>> state;
+    private final IntSupplier nextId;
+    private final Metrics metrics;
+    private WriteAheadLog log;
+    private ScheduledExecutorService scheduler;
+    // Serializes compactions; a lock rather than a monitor, as the snapshot write can take a while
+    private final ReentrantLock compactLock = new ReentrantLock();
+
+    // Writer thread state, guarded by writerLock; offsets are logical log offsets. A lock rather than
+    // a monitor so that virtual threads waiting for durability do not pin their carrier.
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final Condition writerSignal = writerLock.newCondition();
+    private Thread writer;
+    private long writeRequested;
+    private long forceRequested;
+    private boolean urgent; // skip the coalescing delay
+    private boolean closing;
+    private IOException writeFailure;
+    // Per-thread nesting depth of batch(); records inside a batch do not wait for durability one by one
+    private final ThreadLocal<int[]> batchDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * @param fileName base name; the snapshot is {@code fileName.snap} and the log {@code fileName.wal}
+     * @param state    current customers in id order. Writers must apply a change to the store before
+     *                 logging it; compaction relies on that ordering instead of a global lock.
+     * @param nextId   next id to hand out, recorded in the snapshot header
+     * @param metrics  receives the latency of every write to disk as {@link Metrics.Operation#SAVE}
+     */
+    PersistenceEngine(String fileName, Supplier<Iterable<Customer>> state, IntSupplier nextId, Metrics metrics) {
+        this.snapshotFile = new File(fileName + ".snap");
+        this.logFile = new File(fileName + ".wal");
+        this.state = state;
+        this.nextId = nextId;
+        this.metrics = metrics;
+    }
+
+    File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    File getLogFile() {
+        return logFile;
+    }
+
+    /** Ids of every customer the log written since the last snapshot adds, changes or deletes. */
+    IntHashMap<Boolean> loggedIds() throws IOException {
+        IntHashMap<Boolean> ids = new IntHashMap<>();
+        WriteAheadLog.replay(logFile, new WriteAheadLog.Handler() {
+            @Override
+            public void added(Customer customer) {
+                ids.put(customer.getId(), Boolean.TRUE);
+            }
+
+            @Override
+            public void updated(int id, CustomerField field, Object value) {
+                ids.put(id, Boolean.TRUE);
+            }
+
+            @Override
+            public void deleted(int id) {
+                ids.put(id, Boolean.TRUE);
+            }
+        });
+        return ids;
+    }
+
+    /** Replays the log written since the last snapshot, then opens it for appending. */
+    void open(WriteAheadLog.Handler handler) throws IOException {
+        int replayed = WriteAheadLog.replay(logFile, handler);
+        if (replayed > 0) {
+            EventLog.info("log_replayed", "records", replayed);
+        }
+        log = new WriteAheadLog(logFile);
+        writer = new Thread(this::runWriter, "customer-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "customer-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            scheduler.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleWithFixedDelay(this::compactIfNeeded, compactCheckSeconds, compactCheckSeconds, TimeUnit.SECONDS);
+    }
+
+    void logAdd(Customer customer) {
+        if (log == null) {
+            return; // still replaying
+        }
+        try {
+            appended(log.appendAdd(customer));
+        } catch (IOException e) {
+            EventLog.error("log_append_failed", "error", e.getMessage());
+        }
+    }
+
+    void logUpdate(Customer customer, CustomerField field) {
+        if (log == null) {
+            return; // still replaying
+        }
+        try {
+            appended(log.appendUpdate(customer.getId(), field, customer.get(field)));
+        } catch (IOException e) {
+            EventLog.error("log_append_failed", "error", e.getMessage());
+        }
+    }
+
+    void logDelete(int id) {
+        if (log == null) {
+            return; // still replaying
+        }
+        try {
+            appended(log.appendDelete(id));
+        } catch (IOException e) {
+            EventLog.error("log_append_failed", "error", e.getMessage());
+        }
+    }
+
+    // Hands a new record to the writer; under ALWAYS the caller waits until it is durable
+    private void appended(long end) {
+        if (fsyncPolicy == FsyncPolicy.ALWAYS && batchDepth.get()[0] == 0) {
+            awaitWritten(end, true);
+            return;
+        }
+        writerLock.lock();
+        try {
+            if (end > writeRequested) {
+                writeRequested = end;
+                writerSignal.signalAll();
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code mutations} as one batch: their records are written out together and the call
+     * returns once the whole batch is durable, so a batch costs one write and one fsync.
+     */
+    void batch(Runnable mutations) {
+        if (log == null) {
+            mutations.run();
+            return;
+        }
+        enterBatch();
+        boolean outermost;
+        try {
+            mutations.run();
+        } finally {
+            outermost = exitBatch();
+        }
+        if (outermost) {
+            awaitDurable();
+        }
+    }
+
+    // batch() split in two for callers that span several engines and wait for them together
+    void enterBatch() {
+        batchDepth.get()[0]++;
+    }
+
+    // Returns true when the outermost batch of the calling thread ended
+    boolean exitBatch() {
+        return --batchDepth.get()[0] == 0;
+    }
+
+    /**
+     * Asks the writer to write every record appended so far; does not wait. The write still waits
+     * out {@code flushDelayMs}, so that it covers whatever else arrives meanwhile.
+     */
+    void flush() {
+        request(false, false);
+    }
+
+    /**
+     * Like {@link #flush} but also asks for the fsync the policy calls for, so that several engines
+     * can work on their disk writes at once before {@link #awaitDurable} waits on each.
+     */
+    void requestDurable() {
+        request(fsyncPolicy != FsyncPolicy.NEVER, true);
+    }
+
+    // urgent skips the coalescing delay; only for callers about to wait on the write
+    private void request(boolean force, boolean urgent) {
+        if (log == null) {
+            return;
+        }
+        writerLock.lock();
+        try {
+            long end = log.appended();
+            writeRequested = Math.max(writeRequested, end);
+            if (force) {
+                forceRequested = Math.max(forceRequested, end);
+            }
+            this.urgent |= urgent;
+            writerSignal.signalAll();
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record appended before the call is on disk (only written to the file under
+     * {@link FsyncPolicy#NEVER}). A write failure is reported and ends the wait.
+     */
+    void awaitDurable() {
+        if (log != null) {
+            awaitWritten(log.appended(), fsyncPolicy != FsyncPolicy.NEVER);
+        }
+    }
+
+    private void awaitWritten(long end, boolean force) {
+        boolean interrupted = false;
+        writerLock.lock();
+        try {
+            writeRequested = Math.max(writeRequested, end);
+            if (force) {
+                forceRequested = Math.max(forceRequested, end);
+            }
+            urgent = true;
+            writeFailure = null;
+            writerSignal.signalAll();
+            while ((force ? log.durable() : log.written()) < end && writer.isAlive()) {
+                if (writeFailure != null) {
+                    EventLog.error("log_write_failed", "error", writeFailure.getMessage());
+                    break;
+                }
+                try {
+                    writerSignal.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writer thread: waits for records, lets a burst settle for flushDelayMs, then writes it at once
+    private void runWriter() {
+        while (true) {
+            long force;
+            writerLock.lock();
+            try {
+                while (!closing && writeRequested <= log.written() && forceRequested <= log.durable()) {
+                    waitQuietly(0);
+                }
+                if (!urgent && !closing && flushDelayMs > 0) {
+                    waitQuietly(flushDelayMs);
+                }
+                urgent = false;
+                force = forceRequested;
+            } finally {
+                writerLock.unlock();
+            }
+            try {
+                long start = System.nanoTime();
+                long written = log.write();
+                if (fsyncPolicy == FsyncPolicy.ALWAYS || (force > log.durable() && fsyncPolicy != FsyncPolicy.NEVER)) {
+                    log.force();
+                }
+                metrics.record(Metrics.Operation.SAVE, start);
+                writerLock.lock();
+                try {
+                    writeFailure = null;
+                    writerSignal.signalAll();
+                    if (closing && writeRequested <= written && forceRequested <= log.durable()) {
+                        return;
+                    }
+                } finally {
+                    writerLock.unlock();
+                }
+            } catch (IOException e) {
+                EventLog.error("log_write_failed", "error", e.getMessage());
+                writerLock.lock();
+                try {
+                    writeFailure = e;
+                    writerSignal.signalAll();
+                    if (closing) {
+                        return;
+                    }
+                    waitQuietly(fsyncIntervalMs); // back off before retrying
+                } finally {
+                    writerLock.unlock();
+                }
+            }
+        }
+    }
+
+    // Called with writerLock held
+    private void waitQuietly(long millis) {
+        try {
+            if (millis > 0) {
+                writerSignal.await(millis, TimeUnit.MILLISECONDS);
+            } else {
+                writerSignal.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            log.write();
+            log.force();
+        } catch (IOException e) {
+            EventLog.error("log_sync_failed", "error", e.getMessage());
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (log.position() >= compactBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes a fresh snapshot and drops the log records it covers. The log position is taken before
+     * the state is captured: every record before it has already been applied to the store, and
+     * records after it are kept and replayed on top of the snapshot, which is harmless because
+     * each record sets absolute values.
+     */
+    void compact() {
+        compactLock.lock();
+        try {
+            long mark = log.position();
+            CustomerSnapshot.write(snapshotFile, state.get(), nextId.getAsInt());
+            log.truncateBefore(mark);
+        } catch (IOException e) {
+            EventLog.error("compaction_failed", "error", e.getMessage());
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    /** Stops the background threads once the writer has drained every buffered record. */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (writer != null) {
+            writerLock.lock();
+            try {
+                closing = true;
+                writerSignal.signalAll();
+            } finally {
+                writerLock.unlock();
+            }
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (log != null) {
+                log.close();
+            }
+        } catch (IOException e) {
+            EventLog.error("log_close_failed", "error", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package sub_project;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Queue of renewable customers (not canceled, not FREE) bucketed by the epoch day of their renewal
+ * date. The buckets live in a sorted map, so finding the next due renewals costs O(log n) plus the
+ * number of customers returned instead of a scan over the whole customer set. Only ids are kept,
+ * so the queue does not pin customer objects in memory; callers look the customers up when due.
+ */
+class RenewalScheduler {
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final TreeMap<Long, IntHashMap<Boolean>> buckets = new TreeMap<>();
+    private int size;
+
+    static boolean isRenewable(Customer customer) {
+        return !customer.isCanceled() && customer.getSubscriptionType() != SubscriptionType.FREE
+                && customer.getRenewalDate() != null;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void schedule(Customer customer) {
+        if (isRenewable(customer)) {
+            add(customer.getRenewalDate(), customer);
+        }
+    }
+
+    synchronized void unschedule(Customer customer) {
+        remove(customer.getRenewalDate(), customer);
+    }
+
+    /** Re-files the customer after a change to one of the fields that decide when it renews. */
+    synchronized void customerChanged(Customer customer, CustomerField field, Object oldValue) {
+        if (field == CustomerField.RENEWAL_DATE) {
+            remove((LocalDate) oldValue, customer);
+        } else if (field == CustomerField.CANCELED || field == CustomerField.SUBSCRIPTION_TYPE) {
+            remove(customer.getRenewalDate(), customer);
+        } else {
+            return;
+        }
+        if (isRenewable(customer)) {
+            add(customer.getRenewalDate(), customer);
+        }
+    }
+
+    synchronized void rebuild(Iterable<Customer> customers) {
+        buckets.clear();
+        size = 0;
+        for (Customer customer : customers) {
+            schedule(customer);
+        }
+    }
+
+    /** Ids of the next {@code limit} renewals in date order, then id order. */
+    synchronized int[] nextDue(int limit) {
+        int[] result = new int[Math.min(limit, size)];
+        int count = 0;
+        for (IntHashMap<Boolean> bucket : buckets.values()) {
+            if (count >= result.length) {
+                break;
+            }
+            int[] ids = bucket.keys();
+            Arrays.sort(ids);
+            int n = Math.min(ids.length, result.length - count);
+            System.arraycopy(ids, 0, result, count, n);
+            count += n;
+        }
+        return result;
+    }
+
+    /** Number of renewals per day for {@code days} days starting at {@code from}. */
+    synchronized int[] dueHistogram(LocalDate from, int days) {
+        int[] histogram = new int[days];
+        long first = from.toEpochDay();
+        for (Map.Entry<Long, IntHashMap<Boolean>> entry : buckets.subMap(first, first + days).entrySet()) {
+            histogram[(int) (entry.getKey() - first)] = entry.getValue().size();
+        }
+        return histogram;
+    }
+
+    /** Removes and returns the ids of every customer due on or before {@code today}, by date then id. */
+    synchronized int[] pollDue(LocalDate today) {
+        Map<Long, IntHashMap<Boolean>> head = buckets.headMap(today.toEpochDay(), true);
+        int total = 0;
+        for (IntHashMap<Boolean> bucket : head.values()) {
+            total += bucket.size();
+        }
+        int[] due = new int[total];
+        int count = 0;
+        Iterator<IntHashMap<Boolean>> it = head.values().iterator();
+        while (it.hasNext()) {
+            int[] ids = it.next().keys();
+            Arrays.sort(ids);
+            System.arraycopy(ids, 0, due, count, ids.length);
+            count += ids.length;
+            it.remove();
+        }
+        size -= total;
+        return due;
+    }
+
+    private void add(LocalDate date, Customer customer) {
+        if (buckets.computeIfAbsent(date.toEpochDay(), day -> new IntHashMap<>()).put(customer.getId(), Boolean.TRUE) == null) {
+            size++;
+        }
+    }
+
+    private void remove(LocalDate date, Customer customer) {
+        if (date == null) {
+            return;
+        }
+        IntHashMap<Boolean> bucket = buckets.get(date.toEpochDay());
+        if (bucket != null && bucket.remove(customer.getId()) != null) {
+            size--;
+            if (bucket.isEmpty()) {
+                buckets.remove(date.toEpochDay());
+            }
+        }
+    }
+
+    /** The first renewal date after {@code today}, advancing by the type's duration. */
+    static LocalDate nextRenewalDate(LocalDate renewalDate, SubscriptionType type, LocalDate today) {
+        int months = Math.max(1, type.getDurationInMonths());
+        LocalDate next = renewalDate;
+        int periods = 0;
+        do {
+            periods++;
+            next = renewalDate.plusMonths((long) months * periods);
+        } while (!next.isAfter(today));
+        return next;
+    }
+}
@@ -0,0 +1,93 @@
+package sub_project;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running customer counts by subscription type x payment method x canceled status, updated on
+ * every mutation so that a report is read in constant time instead of walking all customers.
+ */
+class ReportAggregates {
+    private static final int METHODS = PaymentMethod.values().length + 1; // slot 0 is "no payment method"
+
+    private final AtomicLongArray counts = new AtomicLongArray(SubscriptionType.values().length * METHODS * 2);
+
+    static int slot(SubscriptionType type, PaymentMethod paymentMethod, boolean canceled) {
+        return slot(type.ordinal(), paymentMethod == null ? -1 : paymentMethod.ordinal(), canceled);
+    }
+
+    static int slot(int typeOrdinal, int methodOrdinal, boolean canceled) {
+        return ((typeOrdinal * METHODS) + methodOrdinal + 1) * 2 + (canceled ? 1 : 0);
+    }
+
+    void added(Customer customer) {
+        counts.incrementAndGet(slotOf(customer));
+    }
+
+    void removed(Customer customer) {
+        counts.decrementAndGet(slotOf(customer));
+    }
+
+    /** Moves the customer from the bucket it was in before {@code field} changed to its current one. */
+    void customerChanged(Customer customer, CustomerField field, Object oldValue) {
+        SubscriptionType type = customer.getSubscriptionType();
+        PaymentMethod method = customer.getPaymentMethod();
+        boolean canceled = customer.isCanceled();
+        switch (field) {
+            case SUBSCRIPTION_TYPE:
+                type = (SubscriptionType) oldValue;
+                break;
+            case PAYMENT_METHOD:
+                method = (PaymentMethod) oldValue;
+                break;
+            case CANCELED:
+                canceled = (Boolean) oldValue;
+                break;
+            default:
+                return;
+        }
+        counts.decrementAndGet(slot(type, method, canceled));
+        counts.incrementAndGet(slotOf(customer));
+    }
+
+    void rebuild(CustomerStore customers) {
+        long[] fresh = rescanShards(customers.shards());
+        for (int i = 0; i < fresh.length; i++) {
+            counts.set(i, fresh[i]);
+        }
+    }
+
+    long[] snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /** Counts every shard on its own thread and adds up the per-shard counts. */
+    static long[] rescanShards(List<CustomerStore> shards) {
+        if (shards.size() == 1) {
+            return rescan(shards.get(0));
+        }
+        return shards.parallelStream().map(ReportAggregates::rescan).reduce((left, right) -> {
+            long[] sum = new long[left.length];
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] = left[i] + right[i];
+            }
+            return sum;
+        }).orElseGet(() -> new long[SubscriptionType.values().length * METHODS * 2]);
+    }
+
+    static long[] rescan(Iterable<Customer> customers) {
+        long[] fresh = new long[SubscriptionType.values().length * METHODS * 2];
+        for (Customer customer : customers) {
+            fresh[slotOf(customer)]++;
+        }
+        return fresh;
+    }
+
+    private static int slotOf(Customer customer) {
+        return slot(customer.getSubscriptionType(), customer.getPaymentMethod(), customer.isCanceled());
+    }
+}
@@ -0,0 +1,240 @@
+package sub_project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Customers split by a hash of their id over independent stores, each with its own lock, so
+ * writers to different shards never wait for each other and each shard can be loaded and saved on
+ * its own thread. Whole-store reads merge the shards, which are each in id order.
+ */
+class ShardedCustomerStore implements CustomerStore {
+    private final List<CustomerStore> shards;
+
+    ShardedCustomerStore(int count, Supplier<CustomerStore> newShard) {
+        if (count < 1) {
+            throw new IllegalArgumentException("shard count must be positive");
+        }
+        List<CustomerStore> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(newShard.get());
+        }
+        this.shards = Collections.unmodifiableList(list);
+    }
+
+    /** The shard that holds {@code id} out of {@code count}; sequential ids spread evenly. */
+    static int shardOf(int id, int count) {
+        return Math.floorMod(id * 0x9E3779B9 >>> 7, count);
+    }
+
+    private CustomerStore shard(int id) {
+        return shards.get(shardOf(id, shards.size()));
+    }
+
+    @Override
+    public List<CustomerStore> shards() {
+        return shards;
+    }
+
+    /** Every shard's counters added up by name. */
+    @Override
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for (CustomerStore shard : shards) {
+            shard.stats().forEach((name, value) -> stats.merge(name, value, Long::sum));
+        }
+        return stats;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (CustomerStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (CustomerStore shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getMaxId() {
+        int maxId = 0;
+        for (CustomerStore shard : shards) {
+            maxId = Math.max(maxId, shard.getMaxId());
+        }
+        return maxId;
+    }
+
+    @Override
+    public Customer get(int id) {
+        return shard(id).get(id);
+    }
+
+    @Override
+    public Customer add(Customer customer) {
+        return shard(customer.getId()).add(customer);
+    }
+
+    @Override
+    public Customer remove(int id) {
+        return shard(id).remove(id);
+    }
+
+    @Override
+    public void clear() {
+        for (CustomerStore shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    public Iterator<Customer> iterator() {
+        List<Iterator<Customer>> iterators = new ArrayList<>(shards.size());
+        for (CustomerStore shard : shards) {
+            iterators.add(shard.iterator());
+        }
+        return merge(iterators);
+    }
+
+    @Override
+    public List<Customer> values() {
+        List<Customer> list = new ArrayList<>(size());
+        for (Customer customer : this) {
+            list.add(customer);
+        }
+        return list;
+    }
+
+    @Override
+    public List<Customer> findByEmail(String email) {
+        return collect(shard -> shard.findByEmail(email));
+    }
+
+    @Override
+    public List<Customer> findByType(SubscriptionType type) {
+        return collect(shard -> shard.findByType(type));
+    }
+
+    @Override
+    public List<Customer> findByPaymentMethod(PaymentMethod paymentMethod) {
+        return collect(shard -> shard.findByPaymentMethod(paymentMethod));
+    }
+
+    @Override
+    public List<Customer> findCanceled() {
+        return collect(shard -> shard.findCanceled());
+    }
+
+    private List<Customer> collect(Function<CustomerStore, List<Customer>> find) {
+        List<Iterator<Customer>> iterators = new ArrayList<>(shards.size());
+        int total = 0;
+        for (CustomerStore shard : shards) {
+            List<Customer> found = find.apply(shard);
+            total += found.size();
+            iterators.add(found.iterator());
+        }
+        List<Customer> list = new ArrayList<>(total);
+        merge(iterators).forEachRemaining(list::add);
+        return list;
+    }
+
+    // Merges iterators that are each in id order into one in id order
+    private static Iterator<Customer> merge(List<Iterator<Customer>> iterators) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, iterators.size()), Comparator.comparingInt(head -> head.customer.getId()));
+        for (Iterator<Customer> iterator : iterators) {
+            if (iterator.hasNext()) {
+                heads.add(new Head(iterator.next(), iterator));
+            }
+        }
+        return new Iterator<Customer>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Customer next() {
+                Head head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                Customer current = head.customer;
+                if (head.rest.hasNext()) {
+                    head.customer = head.rest.next();
+                    heads.add(head);
+                }
+                return current;
+            }
+        };
+    }
+
+    private static final class Head {
+        Customer customer;
+        final Iterator<Customer> rest;
+
+        Head(Customer customer, Iterator<Customer> rest) {
+            this.customer = customer;
+            this.rest = rest;
+        }
+    }
+
+    /**
+     * Holds every shard's scan open at once, taking the shard locks in shard order, and hands
+     * {@code scan} their candidates joined into one stream that splits along shard boundaries
+     * first, so a parallel scan keeps every shard busy.
+     */
+    @Override
+    public <R> R scan(CustomerQuery query, Function<Stream<Customer>, R> scan) {
+        return scanFrom(0, query, new ArrayList<>(shards.size()), scan);
+    }
+
+    private <R> R scanFrom(int index, CustomerQuery query, List<Stream<Customer>> parts, Function<Stream<Customer>, R> scan) {
+        if (index == shards.size()) {
+            return scan.apply(concat(parts, 0, parts.size()));
+        }
+        return shards.get(index).scan(query, candidates -> {
+            parts.add(candidates);
+            return scanFrom(index + 1, query, parts, scan);
+        });
+    }
+
+    // Balanced rather than left-deep, so splitting the result reaches every part in log(n) steps
+    private static Stream<Customer> concat(List<Stream<Customer>> parts, int from, int to) {
+        if (to - from == 1) {
+            return parts.get(from);
+        }
+        int middle = (from + to) >>> 1;
+        return Stream.concat(concat(parts, from, middle), concat(parts, middle, to));
+    }
+
+    @Override
+    public void reindex(Customer customer, CustomerField field, Object oldValue) {
+        shard(customer.getId()).reindex(customer, field, oldValue);
+    }
+
+    @Override
+    public void setListener(CustomerListener listener) {
+        for (CustomerStore shard : shards) {
+            shard.setListener(listener);
+        }
+    }
+}
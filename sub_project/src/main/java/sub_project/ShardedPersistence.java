@@ -0,0 +1,258 @@
+package sub_project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * One {@link PersistenceEngine} per shard of a {@link ShardedCustomerStore}: every shard has its own
+ * snapshot, log and writer thread, so a mutation appends only to the log of the shard it touches,
+ * compaction rewrites shards independently and startup reads all of them at once. A single shard
+ * keeps the unsharded names {@code fileName.snap} and {@code fileName.wal}; with N shards shard i
+ * uses {@code fileName.i-of-N.snap} and {@code fileName.i-of-N.wal}. Once a {@link ChangeStream} is
+ * attached, every logged mutation is also published to it.
+ */
+class ShardedPersistence implements AutoCloseable {
+    @FunctionalInterface
+    interface ShardTask {
+        void run(int shard) throws IOException;
+    }
+
+    private final PersistenceEngine[] engines;
+    private volatile ChangeStream changes;
+
+    /**
+     * @param state  current customers of shard i in id order, under the same rules as
+     *               {@link PersistenceEngine}'s state
+     * @param nextId next id to hand out, recorded in every shard's snapshot header
+     */
+    ShardedPersistence(String fileName, int shards, IntFunction<Iterable<Customer>> state, IntSupplier nextId, Metrics metrics) {
+        engines = new PersistenceEngine[shards];
+        for (int i = 0; i < shards; i++) {
+            int shard = i;
+            engines[i] = new PersistenceEngine(baseName(fileName, i, shards), () -> state.apply(shard), nextId, metrics);
+        }
+    }
+
+    static String baseName(String fileName, int shard, int shards) {
+        return shards == 1 ? fileName : fileName + "." + shard + "-of-" + shards;
+    }
+
+    /** The shard count of the snapshot found next to {@code fileName}, or 0 when there is none. */
+    static int shardsOnDisk(String fileName) {
+        if (new File(fileName + ".snap").exists()) {
+            return 1;
+        }
+        File file = new File(fileName).getAbsoluteFile();
+        String prefix = file.getName() + ".0-of-";
+        String[] names = file.getParentFile().list((dir, name) -> name.startsWith(prefix) && name.endsWith(".snap"));
+        if (names == null || names.length == 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(names[0].substring(prefix.length(), names[0].length() - ".snap".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    int size() {
+        return engines.length;
+    }
+
+    int shardOf(int id) {
+        return ShardedCustomerStore.shardOf(id, engines.length);
+    }
+
+    boolean hasSnapshot() {
+        for (PersistenceEngine engine : engines) {
+            if (!engine.getSnapshotFile().exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Maps every shard's snapshot; index i is shard i. */
+    CustomerSnapshot[] openSnapshots() throws IOException {
+        CustomerSnapshot[] snapshots = new CustomerSnapshot[engines.length];
+        forEachShard(shard -> snapshots[shard] = CustomerSnapshot.open(engines[shard].getSnapshotFile()));
+        return snapshots;
+    }
+
+    /** Ids of every customer the logs written since the last snapshots add, change or delete. */
+    IntHashMap<Boolean> loggedIds() throws IOException {
+        IntHashMap<Boolean> ids = new IntHashMap<>();
+        for (PersistenceEngine engine : engines) {
+            for (int id : engine.loggedIds().keys()) {
+                ids.put(id, Boolean.TRUE);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Replays every shard's log and opens it for appending, shards in parallel; {@code handler}
+     * must accept records from several threads, though records for one id all come from one.
+     */
+    void open(WriteAheadLog.Handler handler) throws IOException {
+        forEachShard(shard -> engines[shard].open(handler));
+    }
+
+    void setChangeStream(ChangeStream changes) {
+        this.changes = changes;
+    }
+
+    void logAdd(Customer customer) {
+        engines[shardOf(customer.getId())].logAdd(customer);
+        ChangeStream stream = changes;
+        if (stream != null) {
+            stream.added(customer);
+        }
+    }
+
+    void logUpdate(Customer customer, CustomerField field) {
+        engines[shardOf(customer.getId())].logUpdate(customer, field);
+        ChangeStream stream = changes;
+        if (stream != null) {
+            stream.updated(customer, field);
+        }
+    }
+
+    void logDelete(int id) {
+        engines[shardOf(id)].logDelete(id);
+        ChangeStream stream = changes;
+        if (stream != null) {
+            stream.deleted(id);
+        }
+    }
+
+    /** {@link PersistenceEngine#batch} across every shard the mutations touch. */
+    void batch(Runnable mutations) {
+        if (engines.length == 1) {
+            engines[0].batch(mutations);
+            return;
+        }
+        for (PersistenceEngine engine : engines) {
+            engine.enterBatch();
+        }
+        boolean outermost = false;
+        try {
+            mutations.run();
+        } finally {
+            for (PersistenceEngine engine : engines) {
+                outermost = engine.exitBatch();
+            }
+        }
+        if (outermost) {
+            awaitDurable();
+        }
+    }
+
+    void flush() {
+        for (PersistenceEngine engine : engines) {
+            engine.flush();
+        }
+    }
+
+    /** Starts every shard's write and fsync before waiting, so the shards' disk work overlaps. */
+    void awaitDurable() {
+        for (PersistenceEngine engine : engines) {
+            engine.requestDurable();
+        }
+        for (PersistenceEngine engine : engines) {
+            engine.awaitDurable();
+        }
+    }
+
+    /** Compacts every shard, in parallel. */
+    void compact() {
+        onEachShard(shard -> engines[shard].compact());
+    }
+
+    /** Deletes every shard's snapshot and log; only after {@link #close}. */
+    void delete() {
+        for (PersistenceEngine engine : engines) {
+            for (File file : new File[] {engine.getSnapshotFile(), engine.getLogFile()}) {
+                if (file.exists() && !file.delete()) {
+                    EventLog.warn("file_delete_failed", "file", file.getName());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        onEachShard(shard -> engines[shard].close());
+    }
+
+    // forEachShard for tasks that report their own I/O failures
+    private void onEachShard(IntConsumer task) {
+        try {
+            forEachShard(task::accept);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an IntConsumer
+        }
+    }
+
+    /**
+     * Runs {@code task} for every shard, each on its own thread when there are several, and
+     * rethrows the first failure once all have finished.
+     */
+    void forEachShard(ShardTask task) throws IOException {
+        if (engines.length == 1) {
+            task.run(0);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(engines.length, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "customer-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Void>> results = new ArrayList<>(engines.length);
+            for (int i = 0; i < engines.length; i++) {
+                int shard = i;
+                results.add(pool.submit(() -> {
+                    task.run(shard);
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    if (failure == null) {
+                        failure = (IOException) cause;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the shards");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
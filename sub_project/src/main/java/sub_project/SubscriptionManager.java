@@ -1,37 +1,136 @@
 package sub_project;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
-public class SubscriptionManager {
-    private List<Customer> customers = new ArrayList<>();
-    private String fileName = "customers.csv";
-    private int nextId;
+/**
+ * Safe for use from many threads: ids come from an atomic counter, quota checks are lock-free,
+ * lookups never take a lock and an Excel import swaps the whole dataset under an exclusive lock.
+ */
+public class SubscriptionManager implements CustomerListener {
+    private final int shardCount = Math.max(1, Integer.getInteger("subscription.shards", 1));
+    private volatile CustomerStore customers = newStore(shardCount);
+    // Listener of the customers in the current dataset; swapped together with customers
+    private volatile CustomerListener datasetListener = new DatasetListener(customers);
+    private final String fileName;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Metrics metrics = new Metrics(() -> customers);
+    private final ShardedPersistence persistence;
+    private final boolean changeCapture = Boolean.getBoolean("subscription.cdc");
+    private volatile ChangeStream changes;
 
-    private Map<SubscriptionType, Integer> subscriptionLimits = new HashMap<>();
-    private Map<SubscriptionType, Integer> subscriptionUsage = new HashMap<>();
+    // Mutations hold the read side; replacing the whole dataset holds the write side
+    private final ReentrantReadWriteLock datasetLock = new ReentrantReadWriteLock();
+    // Files derived from the customers, kept current from the same changes as the renewal queue and report totals
+    private final DerivedView usernames;
+    private final List<DerivedView> views;
 
-    private LocalDate lastResetDate;
+    private final RenewalScheduler renewals = new RenewalScheduler();
+    private final ReportAggregates reports = new ReportAggregates();
+    private final boolean reportSelfCheck = Boolean.getBoolean("subscription.reports.selfCheck");
+    private final int renewalBatchSize = Integer.getInteger("subscription.renewalBatchSize", RenewalScheduler.DEFAULT_BATCH_SIZE);
+    private final int parallelScanThreshold = Integer.getInteger("subscription.query.parallelThreshold", 50_000);
+    private final int streamPageSize = Integer.getInteger("subscription.query.streamPageSize", 10_000);
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "renewals");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<SubscriptionType, Integer> subscriptionLimits = new EnumMap<>(SubscriptionType.class);
+    private final SubscriptionQuota quota;
+    private final File quotaFile;
+
+    // Set while the binary snapshots are loaded in the background, one per shard; ids the log touches must wait
+    private volatile CustomerSnapshot[] loading;
+    private final IntHashMap<Boolean> loggedIds;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private volatile RuntimeException loadFailure;
 
     public SubscriptionManager() {
-        customers = loadCustomers();
-        if (customers.isEmpty()) {
-            nextId = 1;
+        this("customers.csv");
+    }
+
+    /**
+     * Starts from the binary snapshot {@code fileName.snap} when there is one: the file is mapped,
+     * customers are loaded in the background and {@link #getCustomerById} answers from the mapping
+     * meanwhile; everything else waits for {@link #awaitLoaded}. Without a snapshot the CSV file
+     * {@code fileName} is imported and a snapshot written for the next start.
+     *
+     * <p>With {@code -Dsubscription.shards=N} the customers are split into N shards, each with its own
+     * lock, snapshot and log, loaded in parallel at startup. Data written with another shard count
+     * is read once in its old layout and rewritten in the new one.
+     *
+     * <p>With {@code -Dsubscription.cdc=true} every change is also published to a {@link ChangeStream}
+     * next to {@code fileName}, which {@link SubscriptionReplica}s in other processes tail.
+     *
+     * @param fileName customers.csv to import on first start; the snapshot, write-ahead log and
+     *                 subscriptions_and_usernames.csv are kept next to it
+     */
+    public SubscriptionManager(String fileName) {
+        this.fileName = fileName;
+        usernames = new DerivedView(new File(new File(fileName).getAbsoluteFile().getParentFile(), "subscriptions_and_usernames.csv"),
+                "Username,SubscriptionType", customer -> true, customer -> customer.getName() + "," + customer.getSubscriptionType(),
+                EnumSet.of(CustomerField.NAME, CustomerField.SUBSCRIPTION_TYPE), id -> customers.get(id));
+        views = List.of(usernames);
+        customers.setListener(datasetListener);
+        long start = System.nanoTime();
+        metrics.register(new File(fileName).getAbsolutePath());
+        persistence = new ShardedPersistence(fileName, shardCount, shard -> customers.shards().get(shard), nextId::get, metrics);
+        int shardsOnDisk = ShardedPersistence.shardsOnDisk(fileName);
+        if (shardsOnDisk == shardCount) {
+            CustomerSnapshot[] snapshots;
+            try {
+                snapshots = persistence.openSnapshots();
+                loggedIds = persistence.loggedIds();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open customer snapshot: " + e.getMessage(), e);
+            }
+            loading = snapshots;
+            Thread loader = new Thread(() -> loadSnapshots(snapshots, start), "customer-load");
+            loader.setDaemon(true);
+            loader.start();
+            int mapped = 0;
+            for (CustomerSnapshot snapshot : snapshots) {
+                mapped += snapshot.size();
+            }
+            EventLog.info("startup", "ms", (System.nanoTime() - start) / 1_000_000, "mapped", mapped, "shards", shardCount, "loading", "background");
+        } else if (shardsOnDisk > 0) {
+            loggedIds = new IntHashMap<>();
+            reshard(shardsOnDisk);
+            metrics.record(Metrics.Operation.LOAD, start);
+            loaded.countDown();
+            EventLog.info("startup", "ms", (System.nanoTime() - start) / 1_000_000, "customers", customers.size(), "shards", shardCount);
         } else {
-            nextId = customers.get(customers.size() - 1).getId() + 1;
+            loggedIds = new IntHashMap<>();
+            for (Customer customer : loadCustomers()) {
+                store(customer);
+            }
+            openLog(0);
+            persistence.compact();
+            metrics.record(Metrics.Operation.LOAD, start);
+            loaded.countDown();
+            EventLog.info("startup", "ms", (System.nanoTime() - start) / 1_000_000, "customers", customers.size());
         }
 
         // Initialize subscription limits
@@ -39,42 +138,189 @@ public class SubscriptionManager {
         subscriptionLimits.put(SubscriptionType.PREMIUM, 500);
         subscriptionLimits.put(SubscriptionType.GOLD, 1000);
 
-        // Initialize subscription usage
-        for (SubscriptionType type : SubscriptionType.values()) {
-            subscriptionUsage.put(type, 0);
+        // Usage and limits carry over from the last run when it saved them
+        quota = new SubscriptionQuota(subscriptionLimits);
+        quotaFile = new File(fileName + ".quota");
+        if (quotaFile.exists()) {
+            try {
+                quota.load(quotaFile);
+            } catch (IOException e) {
+                EventLog.error("quota_load_failed", "file", quotaFile.getName(), "error", e.getMessage());
+            }
+        }
+
+        long tickMinutes = Long.getLong("subscription.renewalTickMinutes", 60L);
+        maintenance.scheduleWithFixedDelay(this::renewDueSubscriptions, 0, tickMinutes, TimeUnit.MINUTES);
+        long quotaSaveSeconds = Long.getLong("subscription.quota.saveSeconds", 5L);
+        maintenance.scheduleWithFixedDelay(this::saveQuota, quotaSaveSeconds, quotaSaveSeconds, TimeUnit.SECONDS);
+        long viewFlushMillis = Long.getLong("subscription.views.flushMs", 1000L);
+        long viewRewriteNanos = TimeUnit.SECONDS.toNanos(Long.getLong("subscription.views.rewriteSeconds", 60L));
+        maintenance.scheduleWithFixedDelay(() -> flushViews(viewRewriteNanos), viewFlushMillis, viewFlushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes the views' pending changes, and rewrites a stale view at most once per minRewriteNanos
+    private void flushViews(long minRewriteNanos) {
+        if (loaded.getCount() > 0 || loadFailure != null) {
+            return; // a rewrite now would leave out the customers not loaded yet
+        }
+        for (DerivedView view : views) {
+            // Held so that an import cannot swap the customers while a rewrite reads them
+            datasetLock.readLock().lock();
+            try {
+                view.refresh(customers, minRewriteNanos);
+            } catch (IOException e) {
+                EventLog.error("view_flush_failed", "file", view.file().getName(), "error", e.getMessage());
+            } finally {
+                datasetLock.readLock().unlock();
+            }
+        }
+    }
+
+    private void saveQuota() {
+        try {
+            quota.saveIfChanged(quotaFile);
+        } catch (IOException e) {
+            EventLog.error("quota_save_failed", "file", quotaFile.getName(), "error", e.getMessage());
         }
+    }
+
+    /**
+     * {@code -Dsubscription.store=columnar} keeps customers in primitive columns and creates
+     * customer objects on demand, for customer bases too large for one object per customer;
+     * {@code disk} keeps them in a file behind a cache of the most recently used ones, for customer
+     * bases larger than the heap. The default {@code indexed} store keeps every customer object and
+     * its indexes on the heap.
+     */
+    static CustomerStore newStore() {
+        String mode = System.getProperty("subscription.store", "indexed");
+        if ("columnar".equalsIgnoreCase(mode)) {
+            return new ColumnarCustomerStore();
+        }
+        return "disk".equalsIgnoreCase(mode) ? new DiskCustomerStore() : new IndexedCustomerStore();
+    }
 
-        // Initialize last reset date
-        lastResetDate = LocalDate.now();
-        resetMonthlyUsageIfNeeded();
+    /** {@link #newStore()}, split into {@code shards} shards when there is more than one. */
+    static CustomerStore newStore(int shards) {
+        return shards == 1 ? newStore() : new ShardedCustomerStore(shards, SubscriptionManager::newStore);
     }
 
-    private void resetMonthlyUsageIfNeeded() {
-        LocalDate currentDate = LocalDate.now();
-        if (ChronoUnit.MONTHS.between(lastResetDate, currentDate) >= 1) {
-            for (SubscriptionType type : subscriptionUsage.keySet()) {
-                subscriptionUsage.put(type, 0);
+    // Every shard is read on its own thread; the shards' logs are then replayed the same way
+    private void loadSnapshots(CustomerSnapshot[] snapshots, long start) {
+        try {
+            int snapshotNextId = 0;
+            for (CustomerSnapshot snapshot : snapshots) {
+                snapshotNextId = Math.max(snapshotNextId, snapshot.getNextId());
+            }
+            persistence.forEachShard(shard -> {
+                CustomerSnapshot snapshot = snapshots[shard];
+                for (int i = 0; i < snapshot.size(); i++) {
+                    store(snapshot.read(i));
+                }
+            });
+            openLog(snapshotNextId);
+            metrics.record(Metrics.Operation.LOAD, start);
+            EventLog.info("customers_loaded", "ms", (System.nanoTime() - start) / 1_000_000, "customers", customers.size());
+        } catch (IOException | RuntimeException e) {
+            loadFailure = e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e.getMessage(), e);
+            EventLog.error("load_failed", "error", e.getMessage());
+        } finally {
+            loading = null;
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Reads the snapshots and logs written with {@code shardsOnDisk} shards, writes the customers out
+     * in the current layout and deletes the old files once the new ones are in place.
+     */
+    private void reshard(int shardsOnDisk) {
+        ShardedPersistence previous = new ShardedPersistence(fileName, shardsOnDisk, shard -> List.of(), nextId::get, metrics);
+        int snapshotNextId = 0;
+        try {
+            for (CustomerSnapshot snapshot : previous.openSnapshots()) {
+                for (int i = 0; i < snapshot.size(); i++) {
+                    store(snapshot.read(i));
+                }
+                snapshotNextId = Math.max(snapshotNextId, snapshot.getNextId());
             }
-            lastResetDate = currentDate;
-            System.out.println("Monthly usage limits have been reset.");
+            previous.open(new LogReplay());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open customer snapshot: " + e.getMessage(), e);
+        } finally {
+            previous.close();
         }
+        openLog(snapshotNextId);
+        persistence.compact();
+        previous.delete();
+        EventLog.info("resharded", "from", shardsOnDisk, "to", shardCount, "customers", customers.size());
     }
 
-    public void addCustomer(String name, String email, SubscriptionType subscriptionType, LocalDate renewalDate, PaymentMethod paymentMethod) {
-        // Reset monthly usage if needed
-        resetMonthlyUsageIfNeeded();
+    private void openLog(int snapshotNextId) {
+        try {
+            persistence.open(new LogReplay());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open customer log: " + e.getMessage(), e);
+        }
+        nextId.set(Math.max(snapshotNextId, customers.getMaxId() + 1));
+        if (changeCapture) {
+            ChangeStream stream = new ChangeStream(fileName, () -> customers);
+            try {
+                stream.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open change stream: " + e.getMessage(), e);
+            }
+            changes = stream;
+            persistence.setChangeStream(stream);
+        }
+    }
 
-        // Check subscription limits
-        int currentUsage = subscriptionUsage.getOrDefault(subscriptionType, 0);
-        int limit = subscriptionLimits.getOrDefault(subscriptionType, Integer.MAX_VALUE);
+    /** Blocks until the snapshot and the log are fully loaded; lookups by id never need to wait. */
+    public void awaitLoaded() {
+        awaitLoadedQuietly();
+        if (loadFailure != null) {
+            throw new IllegalStateException("Customer data failed to load: " + loadFailure.getMessage(), loadFailure);
+        }
+    }
 
-        if (currentUsage >= limit) {
-            System.out.println("Превышен месячный лимит для типа подписки: " + subscriptionType);
-            return;
+    private void awaitLoadedQuietly() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
+    }
+
+    /**
+     * Adds one customer unless its email's sign-up limit or its subscription type's limit is reached;
+     * returns the outcome as a one-item {@link BulkResult}, with the new id or the reason it was rejected.
+     */
+    public BulkResult addCustomer(String name, String email, SubscriptionType subscriptionType, LocalDate renewalDate, PaymentMethod paymentMethod) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        BulkResult result = new BulkResult(1);
 
-        // Increment usage
-        subscriptionUsage.put(subscriptionType, currentUsage + 1);
+        // Check and consume the per-customer and per-type limits, each in one atomic step
+        String key = customerKey(email);
+        if (!quota.tryAcquireCustomer(key)) {
+            metrics.customerRateLimited(1);
+            EventLog.warn("customer_rate_limited", "limit", quota.getCustomerLimit());
+            result.set(0, BulkResult.Outcome.REJECTED_BY_QUOTA, -1, "too many sign-ups for this email");
+            return result;
+        }
+        if (!quota.tryAcquire(subscriptionType)) {
+            quota.releaseCustomer(key);
+            metrics.quotaRejected(subscriptionType, 1);
+            EventLog.warn("quota_rejected", "type", subscriptionType, "limit", quota.getLimit(subscriptionType));
+            result.set(0, BulkResult.Outcome.REJECTED_BY_QUOTA, -1, "limit reached for " + subscriptionType);
+            return result;
+        }
 
         // Skip payment method for FREE subscriptions
         if (subscriptionType == SubscriptionType.FREE) {
@@ -82,169 +328,792 @@ public class SubscriptionManager {
         }
 
         // Add customer
-        Customer customer = new Customer(nextId++, name, email, subscriptionType, renewalDate, false, paymentMethod);
-        customers.add(customer);
-        saveCustomers();
+        datasetLock.readLock().lock();
+        try {
+            Customer customer = new Customer(nextId.getAndIncrement(), name, email, subscriptionType, renewalDate, false, paymentMethod);
+            store(customer);
+            persistence.logAdd(customer);
+            result.set(0, BulkResult.Outcome.ACCEPTED, customer.getId(), null);
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+        metrics.record(Metrics.Operation.ADD, start);
+        return result;
+    }
 
-        // Save subscriptions and usernames after adding a customer
-        saveSubscriptionsAndUsernames();
+    // Sign-ups are limited per email address, compared case-insensitively
+    private static String customerKey(String email) {
+        String key = email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+        return key.length() > 254 ? key.substring(0, 254) : key;
     }
 
-    public Customer getCustomerById(int id) {
-        for (Customer c : customers) {
-            if (c.getId() == id) {
-                return c;
+    /**
+     * Adds many customers at once. Invalid items are skipped, each email's sign-up limit is checked
+     * per item and each subscription type's limit once for the whole batch, and the accepted
+     * customers reach the log with a single write and fsync.
+     */
+    public BulkResult addCustomers(Collection<NewCustomer> newCustomers) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        List<NewCustomer> items = new ArrayList<>(newCustomers);
+        BulkResult result = new BulkResult(items.size());
+        String[] problems = new String[items.size()];
+        boolean[] limited = new boolean[items.size()];
+        int[] granted = new int[SubscriptionType.values().length];
+        int customerLimited = 0;
+        for (int i = 0; i < items.size(); i++) {
+            problems[i] = validate(items.get(i));
+            if (problems[i] == null && !quota.tryAcquireCustomer(customerKey(items.get(i).getEmail()))) {
+                limited[i] = true;
+                customerLimited++;
+            } else if (problems[i] == null) {
+                granted[items.get(i).getSubscriptionType().ordinal()]++;
+            }
+        }
+        if (customerLimited > 0) {
+            metrics.customerRateLimited(customerLimited);
+            EventLog.warn("customer_rate_limited", "limit", quota.getCustomerLimit(), "count", customerLimited);
+        }
+        for (SubscriptionType type : SubscriptionType.values()) {
+            int wanted = granted[type.ordinal()];
+            if (wanted > 0) {
+                granted[type.ordinal()] = quota.tryAcquire(type, wanted);
+                if (granted[type.ordinal()] < wanted) {
+                    metrics.quotaRejected(type, wanted - granted[type.ordinal()]);
+                    EventLog.warn("quota_rejected", "type", type, "limit", quota.getLimit(type), "count", wanted - granted[type.ordinal()]);
+                }
             }
         }
+
+        datasetLock.readLock().lock();
+        try {
+            persistence.batch(() -> {
+                for (int i = 0; i < items.size(); i++) {
+                    NewCustomer item = items.get(i);
+                    if (problems[i] != null) {
+                        result.set(i, BulkResult.Outcome.INVALID, -1, problems[i]);
+                    } else if (limited[i]) {
+                        result.set(i, BulkResult.Outcome.REJECTED_BY_QUOTA, -1, "too many sign-ups for this email");
+                    } else if (granted[item.getSubscriptionType().ordinal()]-- <= 0) {
+                        quota.releaseCustomer(customerKey(item.getEmail()));
+                        result.set(i, BulkResult.Outcome.REJECTED_BY_QUOTA, -1, "limit reached for " + item.getSubscriptionType());
+                    } else {
+                        Customer customer = new Customer(nextId.getAndIncrement(), item.getName(), item.getEmail(), item.getSubscriptionType(), item.getRenewalDate(), false,
+                                item.getSubscriptionType() == SubscriptionType.FREE ? null : item.getPaymentMethod());
+                        store(customer);
+                        persistence.logAdd(customer);
+                        result.set(i, BulkResult.Outcome.ACCEPTED, customer.getId(), null);
+                    }
+                }
+            });
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+        metrics.record(Metrics.Operation.ADD, start);
+        return result;
+    }
+
+    // Null when the customer can be added, otherwise the reason it cannot
+    private static String validate(NewCustomer customer) {
+        if (customer == null) {
+            return "no customer given";
+        }
+        if (customer.getName() == null || customer.getName().trim().isEmpty()) {
+            return "name is empty";
+        }
+        if (customer.getEmail() == null || !customer.getEmail().contains("@") || !customer.getEmail().contains(".")) {
+            return "bad email";
+        }
+        if (!csvSafe(customer.getName()) || !csvSafe(customer.getEmail())) {
+            return "name and email cannot contain commas or line breaks";
+        }
+        if (customer.getSubscriptionType() == null) {
+            return "subscription type is missing";
+        }
+        if (customer.getRenewalDate() == null) {
+            return "renewal date is missing";
+        }
+        if (customer.getSubscriptionType() != SubscriptionType.FREE && customer.getPaymentMethod() == null) {
+            return "payment method is required for " + customer.getSubscriptionType();
+        }
         return null;
     }
 
+    static boolean csvSafe(String value) {
+        return value.indexOf(',') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+    }
+
+    /** Cancels every listed subscription; the changes reach the log with a single write and fsync. */
+    public BulkResult cancelSubscriptions(Collection<Integer> ids) {
+        return updateCustomers(ids, customer -> customer.setCanceled(true));
+    }
+
+    /** Moves every listed customer to {@code type}; the changes reach the log with a single write and fsync. */
+    public BulkResult changeSubscriptionTypes(Collection<Integer> ids, SubscriptionType type) {
+        if (type == null) {
+            BulkResult result = new BulkResult(ids.size());
+            int i = 0;
+            for (Integer id : ids) {
+                result.set(i++, BulkResult.Outcome.INVALID, id == null ? -1 : id, "subscription type is missing");
+            }
+            return result;
+        }
+        return updateCustomers(ids, customer -> customer.setSubscriptionType(type));
+    }
+
+    /** Applies {@code change} to every listed customer; the changes reach the log with a single write and fsync. */
+    BulkResult updateCustomers(Collection<Integer> ids, Consumer<Customer> change) {
+        awaitLoaded();
+        List<Integer> items = new ArrayList<>(ids);
+        BulkResult result = new BulkResult(items.size());
+        datasetLock.readLock().lock();
+        try {
+            persistence.batch(() -> {
+                for (int i = 0; i < items.size(); i++) {
+                    Integer id = items.get(i);
+                    Customer customer = id == null ? null : customers.get(id);
+                    if (customer == null) {
+                        result.set(i, id == null ? BulkResult.Outcome.INVALID : BulkResult.Outcome.NOT_FOUND, id == null ? -1 : id, "no such customer");
+                    } else {
+                        change.accept(customer);
+                        result.set(i, BulkResult.Outcome.ACCEPTED, id, null);
+                    }
+                }
+            });
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /** Deletes every listed customer; the deletions reach the log with a single write and fsync. */
+    public BulkResult deleteCustomers(Collection<Integer> ids) {
+        awaitLoaded();
+        List<Integer> items = new ArrayList<>(ids);
+        BulkResult result = new BulkResult(items.size());
+        datasetLock.readLock().lock();
+        try {
+            persistence.batch(() -> {
+                for (int i = 0; i < items.size(); i++) {
+                    Integer id = items.get(i);
+                    if (id != null && unstore(id) != null) {
+                        persistence.logDelete(id);
+                        result.set(i, BulkResult.Outcome.ACCEPTED, id, null);
+                    } else {
+                        result.set(i, id == null ? BulkResult.Outcome.INVALID : BulkResult.Outcome.NOT_FOUND, id == null ? -1 : id, "no such customer");
+                    }
+                }
+            });
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public int getSubscriptionUsage(SubscriptionType type) {
+        return quota.getUsage(type);
+    }
+
+    public int getSubscriptionLimit(SubscriptionType type) {
+        return quota.getLimit(type);
+    }
+
+    /** Changes the type's limit per {@code subscription.quota.periodDays}; grants in use count against the new limit. */
+    public void setSubscriptionLimit(SubscriptionType type, int limit) {
+        quota.setLimit(type, limit);
+    }
+
+    /** Changes how many sign-ups one email address gets per {@code subscription.quota.customerPeriodHours}. */
+    public void setCustomerSignupLimit(int limit) {
+        quota.setCustomerLimit(limit);
+    }
+
+    // Derived state (renewal queue, report totals) is updated before the customer becomes visible
+    private void store(Customer customer) {
+        ReentrantLock lock = customer.lock();
+        lock.lock();
+        try {
+            customer.setListener(datasetListener);
+            renewals.schedule(customer);
+            reports.added(customer);
+        } finally {
+            lock.unlock();
+        }
+        Customer previous = customers.add(customer);
+        if (previous != null) {
+            detach(previous);
+        }
+        for (DerivedView view : views) {
+            view.added(customer);
+        }
+    }
+
+    private Customer unstore(int id) {
+        Customer removed = customers.remove(id);
+        if (removed != null) {
+            detach(removed);
+        }
+        return removed;
+    }
+
+    // Holding the customer's lock keeps a concurrent setter from slipping in unreported
+    private void detach(Customer customer) {
+        ReentrantLock lock = customer.lock();
+        lock.lock();
+        try {
+            customer.setListener(null);
+            renewals.unschedule(customer);
+            reports.removed(customer);
+        } finally {
+            lock.unlock();
+        }
+        for (DerivedView view : views) {
+            view.removed(customer);
+        }
+    }
+
+    @Override
+    public void customerChanged(Customer customer, CustomerField field, Object oldValue) {
+        changed(customers, customer, field, oldValue);
+    }
+
+    private void changed(CustomerStore dataset, Customer customer, CustomerField field, Object oldValue) {
+        dataset.reindex(customer, field, oldValue);
+        renewals.customerChanged(customer, field, oldValue);
+        reports.customerChanged(customer, field, oldValue);
+        for (DerivedView view : views) {
+            view.customerChanged(customer, field, oldValue);
+        }
+        persistence.logUpdate(customer, field);
+    }
+
+    /**
+     * Passes on changes to the customers of one dataset for as long as it is the current one. After
+     * an import swapped in another, a setter on an old customer, such as a copy handed out by a scan,
+     * must not touch the new dataset's indexes, derived state or log.
+     */
+    private final class DatasetListener implements CustomerListener {
+        private final CustomerStore dataset;
+
+        DatasetListener(CustomerStore dataset) {
+            this.dataset = dataset;
+        }
+
+        @Override
+        public void customerChanged(Customer customer, CustomerField field, Object oldValue) {
+            if (dataset == customers) {
+                changed(dataset, customer, field, oldValue);
+            }
+        }
+    }
+
+    public Customer getCustomerById(int id) {
+        long start = System.nanoTime();
+        CustomerSnapshot[] early = loading;
+        Customer customer;
+        if (early != null && !loggedIds.containsKey(id)) {
+            // Not touched by the log, so the mapped copy is current; changes to it wait for the load
+            customer = early[persistence.shardOf(id)].find(id);
+            if (customer != null) {
+                customer.setListener(this::earlyChange);
+            }
+        } else {
+            awaitLoaded();
+            customer = customers.get(id);
+        }
+        metrics.record(Metrics.Operation.LOOKUP, start);
+        return customer;
+    }
+
+    // Applies a change made to a customer read from the mapped snapshot to the stored customer
+    private void earlyChange(Customer copy, CustomerField field, Object oldValue) {
+        awaitLoaded();
+        Customer stored = customers.get(copy.getId());
+        if (stored != null && stored != copy) {
+            stored.set(field, copy.get(field));
+        }
+    }
+
+    /** Snapshot of all customers ordered by id; mutate customers through their setters. */
     public List<Customer> getAllCustomers() {
-        return customers;
+        awaitLoaded();
+        return Collections.unmodifiableList(customers.values());
+    }
+
+    public List<Customer> getCustomersByEmail(String email) {
+        awaitLoaded();
+        return customers.findByEmail(email);
+    }
+
+    public List<Customer> getCustomersByType(SubscriptionType type) {
+        awaitLoaded();
+        return customers.findByType(type);
+    }
+
+    public List<Customer> getCustomersByPaymentMethod(PaymentMethod paymentMethod) {
+        awaitLoaded();
+        return customers.findByPaymentMethod(paymentMethod);
+    }
+
+    public List<Customer> getCanceledCustomers() {
+        awaitLoaded();
+        return customers.findCanceled();
+    }
+
+    /**
+     * One page of the customers matching {@code query}, in its order. Each page is one pass over the
+     * candidates the store's indexes leave, run as a parallel stream once the store holds
+     * {@code subscription.query.parallelThreshold} customers, keeping only the page itself in memory.
+     */
+    public CustomerPage queryCustomers(CustomerQuery query) {
+        awaitLoaded();
+        return query.page(customers, parallelScanThreshold);
+    }
+
+    /**
+     * Writes every customer matching {@code query}, from its cursor on, to {@code out} in the
+     * {@link Customer#toString} format with a blank line after each; returns how many were written.
+     * Pages of {@code subscription.query.streamPageSize} customers are fetched as the output goes.
+     */
+    public int writeCustomers(CustomerQuery query, Writer out) throws IOException {
+        return query.writeTo(out, streamPageSize, this::queryCustomers);
     }
 
     public void deleteCustomer(int id) {
-        for (int i = 0; i < customers.size(); i++) {
-            if (customers.get(i).getId() == id) {
-                customers.remove(i);
-                saveCustomers();
-                break;
+        awaitLoaded();
+        Customer removed;
+        datasetLock.readLock().lock();
+        try {
+            removed = unstore(id);
+            if (removed != null) {
+                persistence.logDelete(id);
             }
+        } finally {
+            datasetLock.readLock().unlock();
         }
     }
 
-    public void generateReports() {
-        int total = customers.size();
-        int active = 0;
-        int canceled = 0;
-        for (Customer c : customers) {
-            if (c.isCanceled()) {
-                canceled++;
-            } else {
-                active++;
+    private void replaceCustomers(CustomerStore replacement) {
+        datasetLock.writeLock().lock();
+        try {
+            customers.setListener(null);
+            datasetListener = new DatasetListener(replacement);
+            replacement.setListener(datasetListener);
+            customers = replacement;
+            // A setter of an old customer may have passed DatasetListener's check just before the swap
+            Customer.awaitChanges();
+            renewals.rebuild(replacement);
+            reports.rebuild(replacement);
+            for (DerivedView view : views) {
+                view.invalidate();
             }
+            nextId.set(customers.getMaxId() + 1);
+            persistence.compact();
+            if (changes != null) {
+                changes.replaced();
+            }
+        } finally {
+            datasetLock.writeLock().unlock();
         }
-        System.out.println("Total Customers: " + total);
-        System.out.println("Active Subscriptions: " + active);
-        System.out.println("Canceled Subscriptions: " + canceled);
     }
 
-    private List<Customer> loadCustomers() {
-        List<Customer> list = new ArrayList<>();
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileName));
-            String line = reader.readLine(); // Пропустить заголовок
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                int id = Integer.parseInt(parts[0]);
-                String name = parts[1];
-                String email = parts[2];
-                SubscriptionType type = SubscriptionType.valueOf(parts[3]); // Use enum
-                LocalDate date = LocalDate.parse(parts[4]);
-                boolean canceled = Boolean.parseBoolean(parts[5]);
-                PaymentMethod paymentMethod;
-                if (type == SubscriptionType.FREE) {
-                    paymentMethod = null; // Не устанавливаем метод оплаты для FREE подписки
-                    System.out.println("Free subscriptions do not require a payment method.");
-                } else {
-                    paymentMethod = PaymentMethod.valueOf(parts[6]); // Use enum
+    public int renewDueSubscriptions() {
+        return renewDueSubscriptions(LocalDate.now());
+    }
+
+    /**
+     * Renews every subscription due on or before {@code today} in batches of
+     * {@code subscription.renewalBatchSize}; each batch reaches the log with a single write.
+     * Returns the number of renewed customers.
+     */
+    public int renewDueSubscriptions(LocalDate today) {
+        awaitLoaded();
+        int[] due = renewals.pollDue(today);
+        int renewed = 0;
+        int batches = 0;
+        for (int from = 0; from < due.length; from += renewalBatchSize) {
+            int first = from;
+            int last = Math.min(due.length, from + renewalBatchSize);
+            int[] count = new int[1];
+            datasetLock.readLock().lock();
+            try {
+                persistence.batch(() -> {
+                    for (int i = first; i < last; i++) {
+                        count[0] += renew(due[i], today) ? 1 : 0;
+                    }
+                });
+            } finally {
+                datasetLock.readLock().unlock();
+            }
+            renewed += count[0];
+            batches++;
+        }
+        if (renewed > 0) {
+            EventLog.info("renewed", "customers", renewed, "batches", batches);
+        }
+        return renewed;
+    }
+
+    private boolean renew(int id, LocalDate today) {
+        Customer customer = customers.get(id);
+        if (customer == null) {
+            return false;
+        }
+        ReentrantLock lock = customer.lock();
+        lock.lock();
+        try {
+            // Skip customers deleted, canceled or moved to a later date since they were polled
+            if (customers.get(customer.getId()) != customer || !RenewalScheduler.isRenewable(customer)
+                    || customer.getRenewalDate().isAfter(today)) {
+                return false;
+            }
+            customer.setRenewalDate(RenewalScheduler.nextRenewalDate(customer.getRenewalDate(), customer.getSubscriptionType(), today));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The next {@code limit} renewals in date order. */
+    public List<Customer> getUpcomingRenewals(int limit) {
+        awaitLoaded();
+        List<Customer> upcoming = new ArrayList<>();
+        for (int id : renewals.nextDue(limit)) {
+            Customer customer = customers.get(id);
+            if (customer != null) {
+                upcoming.add(customer);
+            }
+        }
+        return upcoming;
+    }
+
+    /** Current report totals, read from running aggregates in constant time. */
+    public SubscriptionReport getReport() {
+        awaitLoaded();
+        LocalDate today = LocalDate.now();
+        return new SubscriptionReport(reports.snapshot(), today, renewals.dueHistogram(today, 90));
+    }
+
+    /**
+     * Recounts every customer and compares the result with the running totals. Returns true when
+     * they agree; mismatches are printed.
+     */
+    public boolean verifyReports() {
+        awaitLoaded();
+        long[] expected = ReportAggregates.rescanShards(customers.shards());
+        long[] actual = reports.snapshot();
+        boolean consistent = true;
+        for (SubscriptionType type : SubscriptionType.values()) {
+            for (int method = -1; method < PaymentMethod.values().length; method++) {
+                for (boolean canceled : new boolean[] {false, true}) {
+                    int slot = ReportAggregates.slot(type.ordinal(), method, canceled);
+                    if (expected[slot] != actual[slot]) {
+                        consistent = false;
+                        System.out.println("Report mismatch for " + type + "/" + (method < 0 ? "N/A" : PaymentMethod.values()[method])
+                                + "/" + (canceled ? "canceled" : "active") + ": running " + actual[slot] + ", rescan " + expected[slot]);
+                    }
                 }
-                list.add(new Customer(id, name, email, type, date, canceled, paymentMethod));
             }
-            reader.close();
+        }
+        return consistent;
+    }
+
+    public void generateReports() {
+        printReport(getReport());
+        if (reportSelfCheck) {
+            System.out.println(verifyReports() ? "Report self-check passed." : "Report self-check FAILED.");
+        }
+    }
+
+    /** Prints the totals, revenue and upcoming renewals of {@code report} to the console. */
+    static void printReport(SubscriptionReport report) {
+        System.out.println("Total Customers: " + report.getTotal());
+        System.out.println("Active Subscriptions: " + report.getActive());
+        System.out.println("Canceled Subscriptions: " + report.getCanceled());
+        for (SubscriptionType type : SubscriptionType.values()) {
+            StringBuilder line = new StringBuilder("  " + type + ": " + report.getActive(type) + " active");
+            if (type != SubscriptionType.FREE) {
+                for (PaymentMethod method : PaymentMethod.values()) {
+                    line.append(", ").append(method).append(' ').append(report.getCount(type, method, false));
+                }
+            }
+            System.out.println(line);
+        }
+        System.out.printf("Monthly Recurring Revenue: $%.2f%n", report.getMonthlyRecurringRevenue());
+
+        int[] perDay = report.getRenewalsPerDay();
+        int dueTotal = 0;
+        int busiest = 0;
+        for (int day = 0; day < perDay.length; day++) {
+            dueTotal += perDay[day];
+            if (perDay[day] > perDay[busiest]) {
+                busiest = day;
+            }
+        }
+        System.out.println("Renewals due in the next " + perDay.length + " days: " + dueTotal
+                + (dueTotal > 0 ? " (busiest " + report.getHistogramStart().plusDays(busiest) + ": " + perDay[busiest] + ")" : ""));
+        for (int week = 0; week < perDay.length; week += 7) {
+            int count = 0;
+            for (int day = week; day < Math.min(perDay.length, week + 7); day++) {
+                count += perDay[day];
+            }
+            if (count > 0) {
+                System.out.println("  week of " + report.getHistogramStart().plusDays(week) + ": " + count);
+            }
+        }
+    }
+
+    private List<Customer> loadCustomers() {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            EventLog.info("csv_missing", "file", fileName, "action", "starting fresh");
+            return new ArrayList<>();
+        }
+        try {
+            CsvLoader.Result result = CsvLoader.load(file);
+            EventLog.info("csv_loaded", "file", fileName, "customers", result.customers.size(),
+                    "ms", result.elapsedNanos / 1_000_000, "chunks", result.chunks);
+            reportSkipped(fileName, result);
+            return result.customers;
         } catch (IOException e) {
-            System.out.println("File not found, starting fresh.");
+            EventLog.error("csv_load_failed", "file", fileName, "action", "starting fresh", "error", e.getMessage());
+            return new ArrayList<>();
         }
-        return list;
     }
 
+    /**
+     * Asks the background writer to write every change so far without waiting for it. Changes are
+     * handed to the writer as they are made anyway, and written once a burst has settled for
+     * {@code subscription.flushDelayMs}; use {@link #awaitDurable} when the changes must be on disk
+     * before going on.
+     */
     public void saveCustomers() {
+        awaitLoaded();
+        persistence.flush();
+    }
+
+    /** Blocks until every change made before the call is durable according to the fsync policy. */
+    public void awaitDurable() {
+        awaitLoaded();
+        persistence.awaitDurable();
+    }
+
+    /** Folds the write-ahead log into a fresh binary snapshot. */
+    public void compactLog() {
+        awaitLoaded();
+        persistence.compact();
+    }
+
+    public void close() {
+        awaitLoadedQuietly();
+        maintenance.shutdown();
+        flushViews(0);
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
-            for (Customer c : customers) {
-                String line = c.getId() + "," + c.getName() + "," + c.getEmail() + "," +
-                              c.getSubscriptionType() + "," + c.getRenewalDate() + "," + c.isCanceled() + "," + c.getPaymentMethod();
-                writer.write(line);
-                writer.newLine();
-            }
-            writer.close();
+            quota.save(quotaFile);
         } catch (IOException e) {
-            System.out.println("Error saving file.");
+            EventLog.error("quota_save_failed", "file", quotaFile.getName(), "error", e.getMessage());
         }
+        persistence.close();
+        if (changes != null) {
+            changes.close();
+        }
+        metrics.unregister();
+    }
+
+    /** Latency percentiles, quota rejections, import/export throughput and store size as plain text. */
+    public String dumpMetrics() {
+        return metrics.dump();
     }
 
     public void exportToExcel(String excelFileName) {
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Customers");
-            Row headerRow = sheet.createRow(0);
-            headerRow.createCell(0).setCellValue("ID");
-            headerRow.createCell(1).setCellValue("Name");
-            headerRow.createCell(2).setCellValue("Email");
-            headerRow.createCell(3).setCellValue("Subscription Type");
-            headerRow.createCell(4).setCellValue("Renewal Date");
-            headerRow.createCell(5).setCellValue("Canceled");
-
-            int rowNum = 1;
-            for (Customer customer : customers) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(customer.getId());
-                row.createCell(1).setCellValue(customer.getName());
-                row.createCell(2).setCellValue(customer.getEmail());
-                row.createCell(3).setCellValue(customer.getSubscriptionType().name());
-                row.createCell(4).setCellValue(customer.getRenewalDate().toString());
-                row.createCell(5).setCellValue(customer.isCanceled());
-            }
-
-            try (FileOutputStream fileOut = new FileOutputStream(excelFileName)) {
-                workbook.write(fileOut);
-            }
+        exportToExcel(excelFileName,
+                Integer.getInteger("subscription.excel.rowWindow", ExcelExporter.DEFAULT_ROW_WINDOW),
+                Boolean.parseBoolean(System.getProperty("subscription.excel.compressTemp", "true")));
+    }
+
+    /**
+     * Streaming export: keeps at most {@code rowWindow} rows in memory and spills the rest to
+     * temp files, gzip-compressed when {@code compressTempFiles} is set.
+     */
+    public void exportToExcel(String excelFileName, int rowWindow, boolean compressTempFiles) {
+        try {
+            long start = System.nanoTime();
+            int rows = writeExcel(excelFileName, rowWindow, compressTempFiles);
+            long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
             System.out.println("Data exported to Excel file: " + excelFileName);
+            System.out.println("Exported " + rows + " rows in " + elapsedMs + " ms (" + (rows * 1000L / elapsedMs) + " rows/s)");
         } catch (Exception e) {
             System.out.println("Error exporting to Excel: " + e.getMessage());
         }
     }
 
+    /**
+     * Streams the sheet into a staging store and swaps it in only when every row is valid, so a bad
+     * file leaves the current customers untouched.
+     */
     public void importFromExcel(String excelFileName) {
-        try (FileInputStream fileIn = new FileInputStream(excelFileName);
-             Workbook workbook = new XSSFWorkbook(fileIn)) {
-            Sheet sheet = workbook.getSheetAt(0);
-            customers.clear();
-            nextId = 1;
-
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                int id = (int) row.getCell(0).getNumericCellValue();
-                String name = row.getCell(1).getStringCellValue();
-                String email = row.getCell(2).getStringCellValue();
-                SubscriptionType subscriptionType = SubscriptionType.valueOf(row.getCell(3).getStringCellValue());
-                LocalDate renewalDate = LocalDate.parse(row.getCell(4).getStringCellValue());
-                boolean canceled = row.getCell(5).getBooleanCellValue();
-                PaymentMethod paymentMethod;
-                if (subscriptionType == SubscriptionType.FREE) {
-                    paymentMethod = PaymentMethod.CARD; // Default to CARD or set to N/A equivalent
-                    System.out.println("Free subscriptions do not require a payment method.");
-                } else {
-                    paymentMethod = PaymentMethod.valueOf(row.getCell(6).getStringCellValue());
-                }
-
-                customers.add(new Customer(id, name, email, subscriptionType, renewalDate, canceled, paymentMethod));
-                nextId = Math.max(nextId, id + 1);
-            }
-            saveCustomers();
-            System.out.println("Data imported from Excel file: " + excelFileName);
+        try {
+            int rows = readExcel(excelFileName);
+            System.out.println("Data imported from Excel file: " + excelFileName + " (" + rows + " rows)");
         } catch (Exception e) {
             System.out.println("Error importing from Excel: " + e.getMessage());
         }
     }
 
+    /** Writes every customer in the customers.csv format, which {@link #importFromCsv} reads back. */
+    public void exportToCsv(String csvFileName) {
+        try {
+            int rows = writeCsv(csvFileName);
+            System.out.println("Data exported to CSV file: " + csvFileName + " (" + rows + " rows)");
+        } catch (IOException e) {
+            System.out.println("Error exporting to CSV: " + e.getMessage());
+        }
+    }
+
+    /** Replaces every customer with the contents of a customers.csv file. */
+    public void importFromCsv(String csvFileName) {
+        try {
+            int rows = readCsv(csvFileName);
+            System.out.println("Data imported from CSV file: " + csvFileName + " (" + rows + " rows)");
+        } catch (IOException e) {
+            System.out.println("Error importing from CSV: " + e.getMessage());
+        }
+    }
+
+    // The import and export steps without the console messages, for callers that report failures themselves;
+    // each returns the number of rows
+    int writeExcel(String excelFileName) throws IOException {
+        return writeExcel(excelFileName,
+                Integer.getInteger("subscription.excel.rowWindow", ExcelExporter.DEFAULT_ROW_WINDOW),
+                Boolean.parseBoolean(System.getProperty("subscription.excel.compressTemp", "true")));
+    }
+
+    int writeExcel(String excelFileName, int rowWindow, boolean compressTempFiles) throws IOException {
+        awaitLoaded();
+        long start = System.nanoTime();
+        int rows = new ExcelExporter(rowWindow, compressTempFiles).export(customers, excelFileName);
+        metrics.recordRows(Metrics.Operation.EXPORT, rows, start);
+        return rows;
+    }
+
+    int readExcel(String excelFileName) throws IOException {
+        awaitLoaded();
+        long start = System.nanoTime();
+        ExcelImporter importer = new ExcelImporter(newStore(shardCount));
+        replaceCustomers(importer.read(excelFileName));
+        metrics.recordRows(Metrics.Operation.IMPORT, importer.getRowCount(), start);
+        return importer.getRowCount();
+    }
+
+    int writeCsv(String csvFileName) throws IOException {
+        awaitLoaded();
+        long start = System.nanoTime();
+        int rows = CsvExporter.export(customers, new File(csvFileName));
+        metrics.recordRows(Metrics.Operation.EXPORT, rows, start);
+        return rows;
+    }
+
+    private static void reportSkipped(String fileName, CsvLoader.Result result) {
+        if (result.skipped > 0) {
+            EventLog.warn("csv_lines_skipped", "file", fileName, "lines", result.skipped, "firstByte", result.firstSkipped);
+        }
+    }
+
+    int readCsv(String csvFileName) throws IOException {
+        awaitLoaded();
+        long start = System.nanoTime();
+        CsvLoader.Result result = CsvLoader.load(new File(csvFileName));
+        reportSkipped(csvFileName, result);
+        CustomerStore imported = newStore(shardCount);
+        for (Customer customer : result.customers) {
+            imported.add(customer);
+        }
+        replaceCustomers(imported);
+        metrics.recordRows(Metrics.Operation.IMPORT, imported.size(), start);
+        return imported.size();
+    }
+
+    /**
+     * Merges many .csv and .xlsx files into the current customers without removing any: rows are
+     * parsed, validated, deduplicated by email and given new ids in a parallel pipeline, see
+     * {@link ImportPipeline}. Rows whose email is already stored are skipped; each merged batch
+     * reaches the log with a single write.
+     */
+    public MergeResult mergeFiles(List<String> fileNames) throws IOException {
+        awaitLoaded();
+        long start = System.nanoTime();
+        MergeResult result;
+        try {
+            result = new ImportPipeline(nextId::getAndIncrement, this::applyMerged).run(fileNames, customers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("merge interrupted");
+        }
+        metrics.recordRows(Metrics.Operation.IMPORT, result.getMerged(), start);
+        return result;
+    }
+
+    private void applyMerged(List<Customer> added, List<Customer> corrections) {
+        datasetLock.readLock().lock();
+        try {
+            persistence.batch(() -> {
+                for (Customer customer : added) {
+                    store(customer);
+                    persistence.logAdd(customer);
+                }
+                for (Customer values : corrections) {
+                    Customer stored = customers.get(values.getId());
+                    if (stored == null) {
+                        continue; // deleted meanwhile
+                    }
+                    for (CustomerField field : CustomerField.values()) {
+                        if (!Objects.equals(stored.get(field), values.get(field))) {
+                            stored.set(field, values.get(field));
+                        }
+                    }
+                }
+            });
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Brings subscriptions_and_usernames.csv up to date now. In the background, changes reach it
+     * within {@code subscription.views.flushMs}; after an import, a delete or a rename that changed
+     * the line's length it is rewritten at most every {@code subscription.views.rewriteSeconds}, and
+     * always on {@link #close}.
+     */
     public void saveSubscriptionsAndUsernames() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("subscriptions_and_usernames.csv"))) {
-            writer.write("Username,SubscriptionType\n"); // Заголовок
-            for (Customer customer : customers) {
-                writer.write(customer.getName() + "," + customer.getSubscriptionType() + "\n");
-            }
+        awaitLoaded();
+        datasetLock.readLock().lock();
+        try {
+            usernames.read(customers);
         } catch (IOException e) {
-            System.out.println("Error saving subscriptions and usernames: " + e.getMessage());
+            EventLog.error("usernames_save_failed", "error", e.getMessage());
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+    }
+
+    /** Applies replayed log records to the store loaded from the snapshot. */
+    private class LogReplay implements WriteAheadLog.Handler {
+        @Override
+        public void added(Customer customer) {
+            store(customer);
+        }
+
+        @Override
+        public void updated(int id, CustomerField field, Object value) {
+            Customer customer = customers.get(id);
+            if (customer != null) {
+                customer.set(field, value);
+            }
+        }
+
+        @Override
+        public void deleted(int id) {
+            unstore(id);
         }
     }
 }
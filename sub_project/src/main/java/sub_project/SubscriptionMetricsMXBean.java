@@ -0,0 +1,20 @@
+package sub_project;
+
+import java.util.Map;
+
+/** Gauges and counters of one {@link SubscriptionManager}; each operation has its own {@link OperationMetricsMXBean}. */
+public interface SubscriptionMetricsMXBean {
+    int getStoreSize();
+
+    /** The store's own counters, such as cache hits and misses of the disk store; empty for in-memory stores. */
+    Map<String, Long> getStoreStats();
+
+    /** Customers turned away by the subscription type limits since startup, by type. */
+    Map<String, Long> getQuotaRejections();
+
+    /** Sign-ups turned away by the per-email limit since startup. */
+    long getCustomerRateLimited();
+
+    /** Every metric as plain text, one line each. */
+    String dump();
+}
@@ -0,0 +1,303 @@
+package sub_project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free sliding-window quotas that survive restarts. Every limit uses the generic cell rate
+ * algorithm: a key's whole state is one "theoretical arrival time" (TAT) in epoch microseconds. A
+ * limit of L per period P spaces grants T = P / L apart and a grant is allowed while the TAT stays
+ * within P of now. That is a token bucket of L tokens refilled one every T, so usage drains
+ * continuously instead of resetting on a calendar boundary, and check-and-consume is one
+ * compare-and-set on one long.
+ *
+ * <p>There is a limit per {@link SubscriptionType} over {@code subscription.quota.periodDays}
+ * (default 30), and a limit per customer key, the email address on sign-up, of
+ * {@code subscription.quota.perCustomer} grants (default 5) over
+ * {@code subscription.quota.customerPeriodHours} (default 24). Both can be changed at runtime;
+ * consumption already recorded keeps its count under the new limit.
+ *
+ * <p>{@link #save} writes the limits and every TAT still in the future to a small file, replaced
+ * atomically; {@link #load} restores them. Because TATs are wall-clock times, downtime counts as
+ * refill time just as it would have while running.
+ */
+class SubscriptionQuota {
+    private static final int MAGIC = 0x51554f54; // "QUOT"
+    private static final int VERSION = 1;
+    private static final long DEAD = Long.MIN_VALUE; // a purged customer entry; acquirers start a fresh one
+
+    private final LongSupplier clock;
+    private final long periodMicros = TimeUnit.DAYS.toMicros(Long.getLong("subscription.quota.periodDays", 30L));
+    private final long customerPeriodMicros = TimeUnit.HOURS.toMicros(Long.getLong("subscription.quota.customerPeriodHours", 24L));
+    private final AtomicIntegerArray limits = new AtomicIntegerArray(SubscriptionType.values().length);
+    private final AtomicLongArray tats = new AtomicLongArray(SubscriptionType.values().length);
+    private volatile int customerLimit = Integer.getInteger("subscription.quota.perCustomer", 5);
+    private final ConcurrentHashMap<String, AtomicLong> customerTats = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+    private final ReentrantLock saveLock = new ReentrantLock(); // one save at a time; they share the temp file
+
+    SubscriptionQuota(Map<SubscriptionType, Integer> initialLimits) {
+        this(initialLimits, () -> TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+    }
+
+    /** @param clock current time in epoch microseconds */
+    SubscriptionQuota(Map<SubscriptionType, Integer> initialLimits, LongSupplier clock) {
+        this.clock = clock;
+        for (SubscriptionType type : SubscriptionType.values()) {
+            limits.set(type.ordinal(), initialLimits.getOrDefault(type, Integer.MAX_VALUE));
+        }
+    }
+
+    // Spacing between grants; a limit of zero or less allows nothing, and its spacing is the whole period
+    private static long interval(long period, int limit) {
+        return limit <= 0 ? period : Math.max(1, period / limit);
+    }
+
+    // How many of the wanted grants fit before the TAT would run more than a period ahead of now
+    private static int grantable(long tat, long now, long period, int limit, int wanted) {
+        if (limit <= 0) {
+            return 0;
+        }
+        long room = now + period - Math.max(tat, now);
+        return (int) Math.min(wanted, room / interval(period, limit));
+    }
+
+    /** Consumes one grant of the type's limit; returns false if the limit is reached. */
+    boolean tryAcquire(SubscriptionType type) {
+        return tryAcquire(type, 1) == 1;
+    }
+
+    /**
+     * Consumes up to {@code wanted} grants of the type's limit in one step and returns how many were
+     * granted, which is less than asked when the limit is nearly reached.
+     */
+    int tryAcquire(SubscriptionType type, int wanted) {
+        int index = type.ordinal();
+        while (true) {
+            long now = clock.getAsLong();
+            long tat = tats.get(index);
+            int limit = limits.get(index);
+            int granted = grantable(tat, now, periodMicros, limit, wanted);
+            if (granted == 0) {
+                return 0;
+            }
+            if (tats.compareAndSet(index, tat, Math.max(tat, now) + granted * interval(periodMicros, limit))) {
+                markDirty();
+                return granted;
+            }
+        }
+    }
+
+    /** Gives back {@code count} grants taken by {@link #tryAcquire} when the additions did not go through. */
+    void release(SubscriptionType type, int count) {
+        int index = type.ordinal();
+        while (true) {
+            long tat = tats.get(index);
+            if (tats.compareAndSet(index, tat, tat - count * interval(periodMicros, limits.get(index)))) {
+                markDirty();
+                return;
+            }
+        }
+    }
+
+    /** Consumes one grant of the per-customer limit for {@code key}; returns false if it is used up. */
+    boolean tryAcquireCustomer(String key) {
+        while (true) {
+            AtomicLong state = customerTats.computeIfAbsent(key, k -> new AtomicLong());
+            long tat = state.get();
+            if (tat == DEAD) {
+                customerTats.remove(key, state);
+                continue;
+            }
+            long now = clock.getAsLong();
+            int limit = customerLimit;
+            if (grantable(tat, now, customerPeriodMicros, limit, 1) == 0) {
+                return false;
+            }
+            if (state.compareAndSet(tat, Math.max(tat, now) + interval(customerPeriodMicros, limit))) {
+                markDirty();
+                return true;
+            }
+        }
+    }
+
+    /** Gives back a grant taken by {@link #tryAcquireCustomer}. */
+    void releaseCustomer(String key) {
+        AtomicLong state = customerTats.get(key);
+        if (state == null) {
+            return;
+        }
+        long step = interval(customerPeriodMicros, customerLimit);
+        long tat;
+        do {
+            tat = state.get();
+        } while (tat != DEAD && !state.compareAndSet(tat, tat - step));
+        markDirty();
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            dirty = true;
+        }
+    }
+
+    /** Grants of the type's limit in use now; they free up gradually over the period. */
+    int getUsage(SubscriptionType type) {
+        int index = type.ordinal();
+        long ahead = tats.get(index) - clock.getAsLong();
+        if (ahead <= 0) {
+            return 0;
+        }
+        long step = interval(periodMicros, limits.get(index));
+        return (int) Math.min(Integer.MAX_VALUE, (ahead + step - 1) / step);
+    }
+
+    int getLimit(SubscriptionType type) {
+        return limits.get(type.ordinal());
+    }
+
+    int getCustomerLimit() {
+        return customerLimit;
+    }
+
+    void setLimit(SubscriptionType type, int limit) {
+        int index = type.ordinal();
+        int old = limits.getAndSet(index, limit);
+        if (old == limit) {
+            return;
+        }
+        while (true) {
+            long tat = tats.get(index);
+            if (tats.compareAndSet(index, tat, rescale(tat, clock.getAsLong(), interval(periodMicros, old), interval(periodMicros, limit)))) {
+                break;
+            }
+        }
+        markDirty();
+    }
+
+    void setCustomerLimit(int limit) {
+        int old = customerLimit;
+        customerLimit = limit;
+        if (old == limit) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long oldStep = interval(customerPeriodMicros, old);
+        long newStep = interval(customerPeriodMicros, limit);
+        for (AtomicLong state : customerTats.values()) {
+            long tat;
+            do {
+                tat = state.get();
+            } while (tat != DEAD && !state.compareAndSet(tat, rescale(tat, now, oldStep, newStep)));
+        }
+        markDirty();
+    }
+
+    // Keeps the number of grants in use when their spacing changes
+    private static long rescale(long tat, long now, long oldStep, long newStep) {
+        if (tat <= now) {
+            return tat;
+        }
+        return now + (long) ((double) (tat - now) * newStep / oldStep);
+    }
+
+    /** Writes the state if anything changed since the last save. */
+    void saveIfChanged(File file) throws IOException {
+        if (dirty) {
+            save(file);
+        }
+    }
+
+    /**
+     * Writes the limits and every TAT still ahead of now, dropping customer entries that have fully
+     * refilled. Layout, big-endian: magic "QUOT", int version, int typeCount, typeCount x (int limit,
+     * long tat), int customerLimit, int customerCount, customerCount x (UTF key, long tat).
+     */
+    void save(File file) throws IOException {
+        saveLock.lock();
+        try {
+            write(file);
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    private void write(File file) throws IOException {
+        dirty = false;
+        long now = clock.getAsLong();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tats.length());
+            for (int i = 0; i < tats.length(); i++) {
+                out.writeInt(limits.get(i));
+                out.writeLong(tats.get(i));
+            }
+            out.writeInt(customerLimit);
+            List<Map.Entry<String, Long>> live = new ArrayList<>();
+            for (Map.Entry<String, AtomicLong> entry : customerTats.entrySet()) {
+                long tat = entry.getValue().get();
+                if (tat <= now && entry.getValue().compareAndSet(tat, DEAD)) {
+                    customerTats.remove(entry.getKey(), entry.getValue());
+                } else if (tat != DEAD) {
+                    live.add(Map.entry(entry.getKey(), tat));
+                }
+            }
+            out.writeInt(live.size());
+            for (Map.Entry<String, Long> entry : live) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Restores the state written by {@link #save}; limits in the file replace the initial ones. */
+    void load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a quota file: " + file);
+            }
+            int types = in.readInt();
+            for (int i = 0; i < types; i++) {
+                int limit = in.readInt();
+                long tat = in.readLong();
+                if (i < tats.length()) {
+                    limits.set(i, limit);
+                    tats.set(i, tat);
+                }
+            }
+            customerLimit = in.readInt();
+            int customers = in.readInt();
+            for (int i = 0; i < customers; i++) {
+                String key = in.readUTF();
+                customerTats.put(key, new AtomicLong(in.readLong()));
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package sub_project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-only copy of a primary's customers, kept current by tailing the primary's {@link ChangeStream}
+ * ({@code -Dsubscription.cdc=true} on the primary). Serves lookups, queries, reports and exports
+ * without touching the primary's store, usually from another process on the same disk.
+ *
+ * <p>A background thread applies new records every {@code subscription.replica.pollMs}. Every
+ * {@code subscription.replica.snapshotSeconds} and on close the customers are written to
+ * {@code replica.snap} in {@code dir}, followed by the stream position in {@code replica.pos}, so a
+ * restart continues from there. When that position is no longer in the stream, the stream was
+ * started over or a segment is damaged, the replica reads the base of the newest segment into a new
+ * store and swaps it in once complete; until then the old customers are served.
+ *
+ * <p>Customers returned here are the replica's own copies: changing them does not reach the primary
+ * and is overwritten by the next change the primary makes.
+ */
+public final class SubscriptionReplica implements CustomerListener, AutoCloseable {
+    private static final String SNAPSHOT_FILE = "replica.snap";
+    private static final String POSITION_FILE = "replica.pos";
+
+    private final String primaryFileName;
+    private final File dir;
+    private final long pollMs = Math.max(1, Long.getLong("subscription.replica.pollMs", 100L));
+    private final long snapshotSeconds = Math.max(1, Long.getLong("subscription.replica.snapshotSeconds", 60L));
+    private final int parallelScanThreshold = Integer.getInteger("subscription.query.parallelThreshold", 50_000);
+    private final int streamPageSize = Integer.getInteger("subscription.query.streamPageSize", 10_000);
+
+    private volatile CustomerStore customers = SubscriptionManager.newStore();
+    private final RenewalScheduler renewals = new RenewalScheduler();
+    private final ReportAggregates reports = new ReportAggregates();
+    private final ScheduledExecutorService tail = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "replica");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Touched only by the tail thread, or by close() once it has stopped
+    private final Applier applier = new Applier();
+    private ChangeStream.Reader reader;
+    private CustomerStore staging; // receives a base that replaces the customers at its end
+    private boolean skippingBase;
+    private boolean needBase; // the customers do not match any position in the stream
+    private long snapshotSequence = -1;
+
+    // Position of the customers in the stream; written by the tail thread, read by status calls
+    private volatile long streamId;
+    private volatile long applied;
+    private volatile long appliedMillis;
+    private volatile long bytesBehind;
+    private volatile boolean caughtUp;
+
+    // Held while applying a batch and while snapshotting, so close() does not interleave with either
+    private final ReentrantLock applyLock = new ReentrantLock();
+    private volatile boolean closed;
+
+    /**
+     * Loads the replica's last snapshot from {@code dir}, when there is one, and starts tailing the
+     * stream of the primary whose customers.csv is {@code primaryFileName}.
+     */
+    public SubscriptionReplica(String primaryFileName, File dir) {
+        this.primaryFileName = primaryFileName;
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Cannot create replica directory " + dir);
+        }
+        loadSnapshot();
+        tail.scheduleWithFixedDelay(this::poll, 0, pollMs, TimeUnit.MILLISECONDS);
+        tail.scheduleWithFixedDelay(this::snapshotQuietly, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+    }
+
+    private void loadSnapshot() {
+        File snapshotFile = new File(dir, SNAPSHOT_FILE);
+        File positionFile = new File(dir, POSITION_FILE);
+        needBase = true;
+        if (!snapshotFile.exists() || !positionFile.exists()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            String[] position = Files.readString(positionFile.toPath(), StandardCharsets.UTF_8).trim().split(" ");
+            CustomerSnapshot snapshot = CustomerSnapshot.open(snapshotFile);
+            for (int i = 0; i < snapshot.size(); i++) {
+                store(snapshot.read(i));
+            }
+            // As in baseEnd: stores that create customers on demand hand them this listener
+            customers.setListener(this);
+            streamId = Long.parseLong(position[0]);
+            applied = Long.parseLong(position[1]);
+            appliedMillis = positionFile.lastModified();
+            snapshotSequence = applied;
+            needBase = false;
+            EventLog.info("replica_loaded", "ms", (System.nanoTime() - start) / 1_000_000, "customers", customers.size(), "sequence", applied);
+        } catch (IOException | RuntimeException e) {
+            // Served empty until the base of the newest segment is read
+            customers = SubscriptionManager.newStore();
+            customers.setListener(this);
+            renewals.rebuild(customers);
+            reports.rebuild(customers);
+            EventLog.warn("replica_snapshot_unreadable", "error", e.getMessage());
+        }
+    }
+
+    // Applies everything written since the last poll, moving on to newer segments as the primary starts them
+    private void poll() {
+        applyLock.lock();
+        try {
+            if (closed || (reader == null && !openReader())) {
+                return;
+            }
+            while (true) {
+                int read = reader.poll(Long.MAX_VALUE, applier);
+                if (staging == null && !skippingBase) {
+                    if (reader.sequence() > applied) {
+                        applied = reader.sequence();
+                        appliedMillis = reader.timeMillis();
+                    }
+                }
+                if (read > 0) {
+                    continue;
+                }
+                List<ChangeStream.Segment> segments = ChangeStream.segments(primaryFileName);
+                ChangeStream.Segment next = null;
+                boolean ours = false;
+                long newerBytes = 0;
+                for (ChangeStream.Segment segment : segments) {
+                    if (segment.streamId != streamId) {
+                        continue;
+                    }
+                    ours = true;
+                    if (segment.firstSequence > reader.segment().firstSequence) {
+                        newerBytes += segment.file.length() - ChangeStream.HEADER_SIZE;
+                        if (next == null) {
+                            next = segment;
+                        }
+                    }
+                }
+                if (!ours && !segments.isEmpty()) {
+                    EventLog.warn("replica_resync", "reason", "stream replaced");
+                    resync();
+                    return;
+                }
+                if (next == null) {
+                    bytesBehind = reader.remaining();
+                    caughtUp = staging == null && !skippingBase && bytesBehind == 0;
+                    return;
+                }
+                // The primary finished the current segment before starting the next one
+                if (reader.poll(Long.MAX_VALUE, applier) > 0) {
+                    continue;
+                }
+                bytesBehind = newerBytes;
+                caughtUp = false;
+                boolean gap = next.firstSequence != reader.sequence() + 1;
+                reader.close();
+                reader = new ChangeStream.Reader(next);
+                if (gap) {
+                    EventLog.warn("replica_resync", "reason", "missed records", "from", applied + 1, "next", next.firstSequence);
+                    needBase = true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            EventLog.warn("replica_resync", "reason", e.getMessage());
+            resync();
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    // Picks the segment holding the record after the applied one, or the newest when there is none; caller holds applyLock
+    private boolean openReader() throws IOException {
+        List<ChangeStream.Segment> segments = ChangeStream.segments(primaryFileName);
+        if (segments.isEmpty()) {
+            return false;
+        }
+        ChangeStream.Segment from = null;
+        if (!needBase) {
+            for (ChangeStream.Segment segment : segments) {
+                if (segment.streamId == streamId && segment.firstSequence <= applied + 1) {
+                    from = segment;
+                }
+            }
+        }
+        if (from == null) {
+            from = segments.get(segments.size() - 1);
+            needBase = true;
+            streamId = from.streamId;
+            applied = from.firstSequence - 1;
+        }
+        reader = new ChangeStream.Reader(from);
+        EventLog.info("replica_tailing", "file", from.file.getName(), "sequence", applied + 1, "base", needBase);
+        return true;
+    }
+
+    // Drops the reader and any partial base; the next poll starts over from the newest segment
+    private void resync() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // closing a read-only channel
+            }
+            reader = null;
+        }
+        staging = null;
+        skippingBase = false;
+        needBase = true;
+        caughtUp = false;
+    }
+
+    // Derived state (renewal queue, report totals) is updated before the customer becomes visible
+    private void store(Customer customer) {
+        ReentrantLock lock = customer.lock();
+        lock.lock();
+        try {
+            customer.setListener(this);
+            renewals.schedule(customer);
+            reports.added(customer);
+        } finally {
+            lock.unlock();
+        }
+        Customer previous = customers.add(customer);
+        if (previous != null) {
+            detach(previous);
+        }
+    }
+
+    private void detach(Customer customer) {
+        ReentrantLock lock = customer.lock();
+        lock.lock();
+        try {
+            customer.setListener(null);
+            renewals.unschedule(customer);
+            reports.removed(customer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void customerChanged(Customer customer, CustomerField field, Object oldValue) {
+        customers.reindex(customer, field, oldValue);
+        renewals.customerChanged(customer, field, oldValue);
+        reports.customerChanged(customer, field, oldValue);
+    }
+
+    /**
+     * Applies stream records to the customers, or to the staging store while a base is read. Records
+     * within a segment are numbered consecutively, so the one being handled is the reader's last + 1.
+     */
+    private class Applier implements ChangeStream.Handler {
+        private boolean skip() {
+            return reader.sequence() + 1 <= applied && !needBase;
+        }
+
+        @Override
+        public void reset(boolean continues) {
+            if (skip()) {
+                return;
+            }
+            if (continues && !needBase) {
+                skippingBase = true; // repeats the state already applied
+            } else {
+                staging = SubscriptionManager.newStore();
+            }
+        }
+
+        @Override
+        public void baseEnd() {
+            if (skippingBase) {
+                skippingBase = false;
+            } else if (staging != null) {
+                CustomerStore replacement = staging;
+                staging = null;
+                needBase = false;
+                customers.setListener(null);
+                replacement.setListener(SubscriptionReplica.this);
+                customers = replacement;
+                renewals.rebuild(replacement);
+                reports.rebuild(replacement);
+                EventLog.info("replica_base_applied", "sequence", reader.sequence() + 1, "customers", replacement.size());
+            }
+        }
+
+        @Override
+        public void added(Customer customer) {
+            if (staging != null) {
+                staging.add(customer);
+            } else if (!skippingBase && !needBase && !skip()) {
+                store(customer);
+            }
+        }
+
+        @Override
+        public void updated(int id, CustomerField field, Object value) {
+            if (staging != null) {
+                Customer customer = staging.get(id);
+                if (customer != null) {
+                    Object oldValue = customer.get(field);
+                    customer.set(field, value);
+                    staging.reindex(customer, field, oldValue);
+                }
+            } else if (!skippingBase && !needBase && !skip()) {
+                Customer customer = customers.get(id);
+                if (customer != null) {
+                    customer.set(field, value);
+                }
+            }
+        }
+
+        @Override
+        public void deleted(int id) {
+            if (staging != null) {
+                staging.remove(id);
+            } else if (!skippingBase && !needBase && !skip()) {
+                Customer removed = customers.remove(id);
+                if (removed != null) {
+                    detach(removed);
+                }
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            EventLog.error("replica_snapshot_failed", "error", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the customers, then their stream position. A crash between the two leaves a snapshot
+     * newer than its position; replaying the records in between again sets the same values.
+     */
+    private void snapshot() throws IOException {
+        applyLock.lock();
+        try {
+            if (needBase || staging != null || skippingBase || applied == snapshotSequence) {
+                return;
+            }
+            long start = System.nanoTime();
+            CustomerStore current = customers;
+            CustomerSnapshot.write(new File(dir, SNAPSHOT_FILE), current.values(), current.getMaxId() + 1);
+            File position = new File(dir, POSITION_FILE);
+            File tmp = new File(dir, POSITION_FILE + ".tmp");
+            Files.writeString(tmp.toPath(), streamId + " " + applied + "\n", StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), position.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotSequence = applied;
+            EventLog.info("replica_snapshot", "ms", (System.nanoTime() - start) / 1_000_000, "customers", current.size(), "sequence", applied);
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    public Customer getCustomerById(int id) {
+        return customers.get(id);
+    }
+
+    /** Snapshot of all customers ordered by id. */
+    public List<Customer> getAllCustomers() {
+        return Collections.unmodifiableList(customers.values());
+    }
+
+    public List<Customer> getCustomersByEmail(String email) {
+        return customers.findByEmail(email);
+    }
+
+    public List<Customer> getCustomersByType(SubscriptionType type) {
+        return customers.findByType(type);
+    }
+
+    public List<Customer> getCustomersByPaymentMethod(PaymentMethod paymentMethod) {
+        return customers.findByPaymentMethod(paymentMethod);
+    }
+
+    public List<Customer> getCanceledCustomers() {
+        return customers.findCanceled();
+    }
+
+    /** As {@link SubscriptionManager#queryCustomers}, against the replica's customers. */
+    public CustomerPage queryCustomers(CustomerQuery query) {
+        return query.page(customers, parallelScanThreshold);
+    }
+
+    /** As {@link SubscriptionManager#writeCustomers}, against the replica's customers. */
+    public int writeCustomers(CustomerQuery query, Writer out) throws IOException {
+        return query.writeTo(out, streamPageSize, this::queryCustomers);
+    }
+
+    /** Report totals as of the last applied change. */
+    public SubscriptionReport getReport() {
+        LocalDate today = LocalDate.now();
+        return new SubscriptionReport(reports.snapshot(), today, renewals.dueHistogram(today, 90));
+    }
+
+    public void generateReports() {
+        SubscriptionManager.printReport(getReport());
+    }
+
+    /** Writes every customer in the customers.csv format; returns the number of rows. */
+    public int exportToCsv(String csvFileName) throws IOException {
+        return CsvExporter.export(customers, new File(csvFileName));
+    }
+
+    /** Streaming Excel export with the primary's {@code subscription.excel.*} settings; returns the number of rows. */
+    public int exportToExcel(String excelFileName) throws IOException {
+        return new ExcelExporter(Integer.getInteger("subscription.excel.rowWindow", ExcelExporter.DEFAULT_ROW_WINDOW),
+                Boolean.parseBoolean(System.getProperty("subscription.excel.compressTemp", "true")))
+                .export(customers, excelFileName);
+    }
+
+    /** Sequence number of the last change applied; the primary numbers its changes from 1. */
+    public long getAppliedSequence() {
+        return applied;
+    }
+
+    /** How long ago the primary made the last change applied, or 0 when nothing is left to apply. */
+    public long getLagMillis() {
+        return caughtUp ? 0 : Math.max(0, System.currentTimeMillis() - appliedMillis);
+    }
+
+    /** Bytes of the stream the primary has written and the replica has not applied, as of the last poll. */
+    public long getBytesBehind() {
+        return bytesBehind;
+    }
+
+    /** True when the last poll applied everything the primary had written. */
+    public boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    /** Stops tailing and writes a final snapshot. */
+    @Override
+    public void close() {
+        tail.shutdown();
+        applyLock.lock();
+        try {
+            closed = true;
+            snapshotQuietly();
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        } catch (IOException e) {
+            // closing a read-only channel
+        } finally {
+            applyLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package sub_project;
+
+import java.time.LocalDate;
+
+/**
+ * Point-in-time copy of the running report totals.
+ */
+public class SubscriptionReport {
+    private final long[] counts;
+    private final LocalDate histogramStart;
+    private final int[] renewalsPerDay;
+
+    SubscriptionReport(long[] counts, LocalDate histogramStart, int[] renewalsPerDay) {
+        this.counts = counts;
+        this.histogramStart = histogramStart;
+        this.renewalsPerDay = renewalsPerDay;
+    }
+
+    public long getCount(SubscriptionType type, PaymentMethod paymentMethod, boolean canceled) {
+        return counts[ReportAggregates.slot(type, paymentMethod, canceled)];
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getCanceled() {
+        long canceled = 0;
+        for (int slot = 1; slot < counts.length; slot += 2) {
+            canceled += counts[slot];
+        }
+        return canceled;
+    }
+
+    public long getActive() {
+        return getTotal() - getCanceled();
+    }
+
+    public long getActive(SubscriptionType type) {
+        long active = 0;
+        for (int method = -1; method < PaymentMethod.values().length; method++) {
+            active += counts[ReportAggregates.slot(type.ordinal(), method, false)];
+        }
+        return active;
+    }
+
+    /** Monthly recurring revenue of active paid subscriptions. */
+    public double getMonthlyRecurringRevenue() {
+        double revenue = 0;
+        for (SubscriptionType type : SubscriptionType.values()) {
+            if (type.getDurationInMonths() > 0) {
+                revenue += getActive(type) * type.getPrice() / type.getDurationInMonths();
+            }
+        }
+        return revenue;
+    }
+
+    public LocalDate getHistogramStart() {
+        return histogramStart;
+    }
+
+    /** Renewals due per day, index 0 being {@link #getHistogramStart()}. */
+    public int[] getRenewalsPerDay() {
+        return renewalsPerDay.clone();
+    }
+}
@@ -0,0 +1,540 @@
+package sub_project;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * HTTP/JSON front end for a {@link SubscriptionManager}, built on the JDK's {@link HttpServer}.
+ * Every request runs on its own virtual thread, so thousands of slow clients cost little more
+ * than their sockets.
+ *
+ * <pre>
+ * GET    /customers               user    all customers, or one page with ?limit=; see below
+ * POST   /customers               user    add one customer (object) or many (array)
+ * GET    /customers/{id}          user
+ * POST   /customers/{id}/cancel   user
+ * PATCH  /customers/{id}          admin   change any of the fields sent
+ * DELETE /customers/{id}          admin
+ * GET    /reports                 admin
+ * GET    /metrics                 admin   plain text, see {@link SubscriptionManager#dumpMetrics}
+ * POST   /import?file=name        admin   .csv or .xlsx in the working directory
+ * POST   /export?file=name        admin
+ * </pre>
+ *
+ * <p>{@code GET /customers} takes the {@link CustomerQuery} filters as parameters: {@code type},
+ * {@code paymentMethod}, {@code canceled}, {@code renewalFrom}, {@code renewalTo},
+ * {@code emailPrefix}, {@code namePrefix}, and {@code sort} (id, name, email, renewal_date) with
+ * {@code desc=true}. Without {@code limit} every match is streamed as a JSON array; with it the
+ * answer is {@code {"customers":[...],"nextCursor":...}} and {@code cursor} fetches the next page.
+ *
+ * <p>Callers authenticate with {@code Authorization: Bearer <token>}; the token decides the role,
+ * with the same admin/user split as the console menu. Tokens come from
+ * {@code subscription.http.adminToken} and {@code subscription.http.userToken}, or are generated
+ * and printed at startup. Other settings: {@code subscription.http.backlog},
+ * {@code subscription.http.maxBodyBytes}.
+ */
+public class SubscriptionServer implements AutoCloseable {
+    private enum Role { USER, ADMIN }
+
+    private static final int STREAM_PAGE_SIZE = 10_000;
+    private static final int MAX_PAGE_SIZE = 10_000;
+
+    private final SubscriptionManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final byte[] adminToken;
+    private final byte[] userToken;
+    private final int maxBodyBytes = Integer.getInteger("subscription.http.maxBodyBytes", 16 << 20);
+
+    public SubscriptionServer(SubscriptionManager manager, int port) throws IOException {
+        this.manager = manager;
+        this.adminToken = token("subscription.http.adminToken", "admin");
+        this.userToken = token("subscription.http.userToken", "user");
+        server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("subscription.http.backlog", 1024));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    private static byte[] token(String property, String role) {
+        String token = System.getProperty(property);
+        if (token == null || token.isEmpty()) {
+            byte[] random = new byte[16];
+            new SecureRandom().nextBytes(random);
+            token = HexFormat.of().formatHex(random);
+            System.out.println("Generated " + role + " token: " + token);
+        }
+        return token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Listening on port " + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stops accepting connections, gives running requests a second to finish and waits for them. */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            Role role = authenticate(exchange);
+            if (role == null) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                throw new ApiException(401, "missing or unknown token");
+            }
+            route(exchange, role);
+        } catch (ApiException e) {
+            sendError(exchange, e.status, e.getMessage());
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (ClassCastException e) {
+            sendError(exchange, 400, "a field has the wrong JSON type");
+        } catch (Exception e) {
+            EventLog.error("request_failed", "method", exchange.getRequestMethod(), "uri", exchange.getRequestURI(), "error", e);
+            sendError(exchange, 500, "internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Role authenticate(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        byte[] token = header.substring(7).trim().getBytes(StandardCharsets.UTF_8);
+        if (MessageDigest.isEqual(token, adminToken)) {
+            return Role.ADMIN;
+        }
+        return MessageDigest.isEqual(token, userToken) ? Role.USER : null;
+    }
+
+    private void route(HttpExchange exchange, Role role) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+        if (path[0].equals("customers") && path.length == 1) {
+            if (method.equals("GET")) {
+                listCustomers(exchange);
+            } else if (method.equals("POST")) {
+                addCustomers(exchange);
+            } else {
+                throw notAllowed(exchange, "GET, POST");
+            }
+        } else if (path[0].equals("customers") && path.length == 2) {
+            int id = parseId(path[1]);
+            if (method.equals("GET")) {
+                getCustomer(exchange, id);
+            } else if (method.equals("PATCH")) {
+                requireAdmin(role);
+                updateCustomer(exchange, id);
+            } else if (method.equals("DELETE")) {
+                requireAdmin(role);
+                expectFound(manager.deleteCustomers(Collections.singletonList(id)));
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                throw notAllowed(exchange, "GET, PATCH, DELETE");
+            }
+        } else if (path[0].equals("customers") && path.length == 3 && path[2].equals("cancel")) {
+            requireMethod(exchange, "POST");
+            int id = parseId(path[1]);
+            expectFound(manager.cancelSubscriptions(Collections.singletonList(id)));
+            sendCustomer(exchange, 200, id);
+        } else if (path[0].equals("reports") && path.length == 1) {
+            requireMethod(exchange, "GET");
+            requireAdmin(role);
+            sendReport(exchange);
+        } else if (path[0].equals("metrics") && path.length == 1) {
+            requireMethod(exchange, "GET");
+            requireAdmin(role);
+            byte[] text = manager.dumpMetrics().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, text.length);
+            exchange.getResponseBody().write(text);
+        } else if ((path[0].equals("import") || path[0].equals("export")) && path.length == 1) {
+            requireMethod(exchange, "POST");
+            requireAdmin(role);
+            transfer(exchange, path[0].equals("import"));
+        } else {
+            throw new ApiException(404, "no such resource");
+        }
+    }
+
+    private void listCustomers(HttpExchange exchange) throws IOException {
+        CustomerQuery query = toQuery(exchange);
+        String limit = queryParameter(exchange, "limit");
+        if (limit != null) {
+            CustomerPage page = manager.queryCustomers(query.pageSize(parseCount(limit)));
+            StringBuilder sb = new StringBuilder(256).append("{\"customers\":[");
+            for (Customer customer : page.getCustomers()) {
+                Json.appendCustomer(sb, customer).append(',');
+            }
+            if (!page.getCustomers().isEmpty()) {
+                sb.setLength(sb.length() - 1);
+            }
+            send(exchange, 200, Json.appendString(sb.append("],\"nextCursor\":"), page.getNextCursor()).append('}'));
+            return;
+        }
+        // Fetch the first page before sending headers so a bad query still gets a 400
+        CustomerPage page = manager.queryCustomers(query.pageSize(STREAM_PAGE_SIZE));
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+            StringBuilder sb = new StringBuilder(256);
+            out.write('[');
+            boolean first = true;
+            while (true) {
+                for (Customer customer : page.getCustomers()) {
+                    sb.setLength(0);
+                    if (!first) {
+                        sb.append(',');
+                    }
+                    first = false;
+                    out.append(Json.appendCustomer(sb, customer));
+                }
+                if (!page.hasMore()) {
+                    break;
+                }
+                page = manager.queryCustomers(query.after(page.getNextCursor()));
+            }
+            out.write(']');
+        }
+    }
+
+    private static CustomerQuery toQuery(HttpExchange exchange) {
+        CustomerQuery query = new CustomerQuery()
+                .type(parseEnum(SubscriptionType.class, queryParameter(exchange, "type")))
+                .paymentMethod(parseEnum(PaymentMethod.class, queryParameter(exchange, "paymentMethod")))
+                .emailPrefix(queryParameter(exchange, "emailPrefix"))
+                .namePrefix(queryParameter(exchange, "namePrefix"))
+                .after(queryParameter(exchange, "cursor"));
+        String canceled = queryParameter(exchange, "canceled");
+        if (canceled != null) {
+            query.canceled(parseBoolean("canceled", canceled));
+        }
+        String from = queryParameter(exchange, "renewalFrom");
+        String to = queryParameter(exchange, "renewalTo");
+        query.renewalBetween(from == null ? null : LocalDate.parse(from), to == null ? null : LocalDate.parse(to));
+        String sort = queryParameter(exchange, "sort");
+        String desc = queryParameter(exchange, "desc");
+        return query.sortBy(sort == null ? CustomerSort.ID : parseEnum(CustomerSort.class, sort),
+                desc != null && parseBoolean("desc", desc));
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new ApiException(400, name + " must be true or false");
+        }
+        return value.equals("true");
+    }
+
+    private static int parseCount(String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 1 && count <= MAX_PAGE_SIZE) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ApiException(400, "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addCustomers(HttpExchange exchange) throws IOException {
+        Object body = readBody(exchange);
+        if (body instanceof List) {
+            List<NewCustomer> items = new ArrayList<>();
+            for (Object item : (List<Object>) body) {
+                items.add(toNewCustomer(asObject(item)));
+            }
+            send(exchange, 200, Json.appendBulkResult(new StringBuilder(), manager.addCustomers(items)));
+            return;
+        }
+        BulkResult result = manager.addCustomers(Collections.singletonList(toNewCustomer(asObject(body))));
+        switch (result.getOutcome(0)) {
+            case ACCEPTED:
+                sendCustomer(exchange, 201, result.getId(0));
+                break;
+            case REJECTED_BY_QUOTA:
+                throw new ApiException(429, result.getReason(0));
+            default:
+                throw new ApiException(400, result.getReason(0));
+        }
+    }
+
+    private static NewCustomer toNewCustomer(Map<String, Object> fields) {
+        LocalDate renewalDate = fields.get("renewalDate") == null ? null : futureDate((String) fields.get("renewalDate"));
+        return new NewCustomer((String) fields.get("name"), (String) fields.get("email"),
+                parseEnum(SubscriptionType.class, fields.get("subscriptionType")), renewalDate,
+                parseEnum(PaymentMethod.class, fields.get("paymentMethod")));
+    }
+
+    private void getCustomer(HttpExchange exchange, int id) throws IOException {
+        Customer customer = manager.getCustomerById(id);
+        if (customer == null) {
+            throw new ApiException(404, "no such customer");
+        }
+        StringBuilder sb = Json.appendCustomer(new StringBuilder(), customer);
+        if (customer.getRenewalDate() != null) {
+            sb.setLength(sb.length() - 1);
+            sb.append(",\"daysUntilRenewal\":").append(customer.getDaysUntilRenewal()).append('}');
+        }
+        send(exchange, 200, sb);
+    }
+
+    /** Validates every field sent before changing any, then applies them as one batch. */
+    private void updateCustomer(HttpExchange exchange, int id) throws IOException {
+        Map<String, Object> fields = asObject(readBody(exchange));
+        List<Consumer<Customer>> changes = new ArrayList<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            Object value = field.getValue();
+            switch (field.getKey()) {
+                case "name": {
+                    String name = (String) value;
+                    if (name == null || name.trim().isEmpty() || !SubscriptionManager.csvSafe(name)) {
+                        throw new ApiException(400, "bad name");
+                    }
+                    changes.add(c -> c.setName(name));
+                    break;
+                }
+                case "email": {
+                    String email = (String) value;
+                    if (email == null || !email.contains("@") || !email.contains(".") || !SubscriptionManager.csvSafe(email)) {
+                        throw new ApiException(400, "bad email");
+                    }
+                    changes.add(c -> c.setEmail(email));
+                    break;
+                }
+                case "subscriptionType": {
+                    SubscriptionType type = parseEnum(SubscriptionType.class, value);
+                    if (type == null) {
+                        throw new ApiException(400, "subscription type is missing");
+                    }
+                    changes.add(c -> c.setSubscriptionType(type));
+                    break;
+                }
+                case "renewalDate": {
+                    LocalDate date = futureDate((String) value);
+                    changes.add(c -> c.setRenewalDate(date));
+                    break;
+                }
+                case "canceled": {
+                    if (!(value instanceof Boolean)) {
+                        throw new ApiException(400, "canceled must be true or false");
+                    }
+                    boolean canceled = (Boolean) value;
+                    changes.add(c -> c.setCanceled(canceled));
+                    break;
+                }
+                case "paymentMethod": {
+                    PaymentMethod paymentMethod = parseEnum(PaymentMethod.class, value);
+                    changes.add(c -> c.setPaymentMethod(paymentMethod));
+                    break;
+                }
+                default:
+                    throw new ApiException(400, "unknown field " + field.getKey());
+            }
+        }
+        expectFound(manager.updateCustomers(Collections.singletonList(id), c -> changes.forEach(change -> change.accept(c))));
+        sendCustomer(exchange, 200, id);
+    }
+
+    private void sendReport(HttpExchange exchange) throws IOException {
+        SubscriptionReport report = manager.getReport();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"total\":").append(report.getTotal())
+                .append(",\"active\":").append(report.getActive())
+                .append(",\"canceled\":").append(report.getCanceled())
+                .append(",\"monthlyRecurringRevenue\":").append(report.getMonthlyRecurringRevenue())
+                .append(",\"activeByType\":{");
+        for (SubscriptionType type : SubscriptionType.values()) {
+            if (type.ordinal() > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(type).append("\":").append(report.getActive(type));
+        }
+        sb.append("},\"histogramStart\":");
+        Json.appendValue(sb, report.getHistogramStart()).append(",\"renewalsPerDay\":[");
+        int[] renewals = report.getRenewalsPerDay();
+        for (int i = 0; i < renewals.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(renewals[i]);
+        }
+        send(exchange, 200, sb.append("]}"));
+    }
+
+    private void transfer(HttpExchange exchange, boolean importing) throws IOException {
+        String file = queryParameter(exchange, "file");
+        // Only plain names in the working directory, so a request cannot read or overwrite other files
+        if (file == null || file.isEmpty() || file.contains("/") || file.contains("\\") || file.startsWith(".")) {
+            throw new ApiException(400, "file must be a plain file name");
+        }
+        String lower = file.toLowerCase(Locale.ROOT);
+        boolean csv = lower.endsWith(".csv");
+        if (!csv && !lower.endsWith(".xlsx")) {
+            throw new ApiException(400, "file must end in .csv or .xlsx");
+        }
+        int rows;
+        try {
+            if (importing) {
+                rows = csv ? manager.readCsv(file) : manager.readExcel(file);
+            } else {
+                rows = csv ? manager.writeCsv(file) : manager.writeExcel(file);
+            }
+        } catch (IOException e) {
+            throw new ApiException(importing ? 400 : 500, (importing ? "import failed: " : "export failed: ") + e.getMessage());
+        }
+        StringBuilder sb = new StringBuilder("{\"file\":");
+        send(exchange, 200, Json.appendString(sb, file).append(",\"rows\":").append(rows).append('}'));
+    }
+
+    private void sendCustomer(HttpExchange exchange, int status, int id) throws IOException {
+        Customer customer = manager.getCustomerById(id);
+        if (customer == null) {
+            throw new ApiException(404, "no such customer");
+        }
+        send(exchange, status, Json.appendCustomer(new StringBuilder(), customer));
+    }
+
+    private Object readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(maxBodyBytes + 1);
+            if (body.length > maxBodyBytes) {
+                throw new ApiException(413, "request body exceeds " + maxBodyBytes + " bytes");
+            }
+            return Json.parse(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            return; // headers already sent, e.g. a client that went away during a streamed list
+        }
+        try {
+            send(exchange, status, Json.appendString(new StringBuilder("{\"error\":"), message).append('}'));
+        } catch (IOException e) {
+            // client is gone
+        }
+    }
+
+    private static void requireAdmin(Role role) {
+        if (role != Role.ADMIN) {
+            throw new ApiException(403, "admin role required");
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw notAllowed(exchange, method);
+        }
+    }
+
+    private static ApiException notAllowed(HttpExchange exchange, String allowed) {
+        exchange.getResponseHeaders().set("Allow", allowed);
+        return new ApiException(405, "method not allowed");
+    }
+
+    private static void expectFound(BulkResult result) {
+        if (result.getOutcome(0) != BulkResult.Outcome.ACCEPTED) {
+            throw new ApiException(404, result.getReason(0));
+        }
+    }
+
+    private static int parseId(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new ApiException(404, "no such customer");
+        }
+    }
+
+    private static LocalDate futureDate(String value) {
+        LocalDate date = LocalDate.parse(value);
+        if (date.isBefore(LocalDate.now())) {
+            throw new ApiException(400, "renewal date must be in the future");
+        }
+        return date;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, ((String) value).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "unknown " + type.getSimpleName() + " " + value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        if (!(value instanceof Map)) {
+            throw new ApiException(400, "expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
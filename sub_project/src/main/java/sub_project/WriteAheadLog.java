@@ -0,0 +1,372 @@
+package sub_project;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of customer mutations. Every record is framed as
+ * {@code [length][payload][crc32]} so a torn write at the tail is detected and cut off on replay.
+ *
+ * <p>Appending only encodes the record into an in-memory buffer; {@link #write} moves everything
+ * appended so far to the file and {@link #force} makes it durable, so the caller that appends never
+ * does file I/O. Progress is tracked as logical byte counts that keep growing across
+ * {@link #truncateBefore}, so callers can wait for "everything up to here" to be written or forced.
+ */
+class WriteAheadLog implements AutoCloseable {
+    static final byte OP_ADD = 1;
+    static final byte OP_UPDATE = 2;
+    static final byte OP_DELETE = 3;
+    /** Largest record payload; longer ones are refused on append and treated as damage on replay. */
+    static final int MAX_RECORD = 1 << 24;
+    // String encodings: absent, length-prefixed UTF-8
+    private static final byte STRING_NULL = 0;
+    private static final byte STRING_UTF8 = 1;
+
+    /** Receives records in log order during replay. */
+    interface Handler {
+        void added(Customer customer);
+        void updated(int id, CustomerField field, Object value);
+        void deleted(int id);
+    }
+
+    private final File file;
+    // Serializes file I/O; always taken before the monitor that guards the buffer
+    private final Object io = new Object();
+    private FileOutputStream fileOut;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(8192);
+    private long appended; // logical bytes appended, written or not
+    private long written;  // logical bytes handed to the file
+    private volatile long durable; // logical bytes forced to disk
+    private long base;     // logical offset of the first byte of the file
+
+    WriteAheadLog(File file) throws IOException {
+        this.file = file;
+        open();
+        appended = written = durable = file.length();
+    }
+
+    private void open() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+    }
+
+    /** Bytes in the log file including buffered records; used as a compaction mark. */
+    synchronized long position() {
+        return appended - base;
+    }
+
+    /** Logical end of everything appended so far. */
+    synchronized long appended() {
+        return appended;
+    }
+
+    synchronized long written() {
+        return written;
+    }
+
+    long durable() {
+        return durable;
+    }
+
+    synchronized long appendAdd(Customer c) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(OP_ADD);
+        writeCustomer(record, c);
+        return append(bytes);
+    }
+
+    synchronized long appendUpdate(int id, CustomerField field, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(OP_UPDATE);
+        record.writeInt(id);
+        record.writeByte(field.ordinal());
+        writeValue(record, field, value);
+        return append(bytes);
+    }
+
+    synchronized long appendDelete(int id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(OP_DELETE);
+        record.writeInt(id);
+        return append(bytes);
+    }
+
+    // Returns the logical end of the record
+    private long append(ByteArrayOutputStream bytes) throws IOException {
+        byte[] payload = bytes.toByteArray();
+        if (payload.length > MAX_RECORD) {
+            throw new IOException("Log record of " + payload.length + " bytes exceeds " + MAX_RECORD);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        appended += payload.length + 8;
+        return appended;
+    }
+
+    /** Writes every buffered record to the file, without forcing it; returns the logical end written. */
+    long write() throws IOException {
+        synchronized (io) {
+            byte[] bytes;
+            long end;
+            synchronized (this) {
+                bytes = pending.toByteArray();
+                pending.reset();
+                end = appended;
+            }
+            if (bytes.length > 0) {
+                try {
+                    fileOut.write(bytes);
+                } catch (IOException e) {
+                    // Cut off a partial write and put the records back so the next attempt retries them
+                    fileOut.getChannel().truncate(written - base);
+                    synchronized (this) {
+                        ByteArrayOutputStream retry = new ByteArrayOutputStream(bytes.length + pending.size());
+                        retry.write(bytes);
+                        pending.writeTo(retry);
+                        pending = retry;
+                    }
+                    throw e;
+                }
+            }
+            synchronized (this) {
+                written = end;
+            }
+            return end;
+        }
+    }
+
+    /** Forces everything written so far to disk; returns the logical end that is now durable. */
+    long force() throws IOException {
+        synchronized (io) {
+            long end = written();
+            if (end > durable) {
+                fileOut.getChannel().force(false);
+                durable = end;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Drops every record before {@code mark}, keeping whatever was appended after it. The tail is
+     * copied and forced while holding only the I/O lock, so appenders keep buffering meanwhile; the
+     * monitor is taken just to swap in the new file.
+     */
+    void truncateBefore(long mark) throws IOException {
+        synchronized (io) {
+            long end = write(); // the file now holds everything up to end; nothing else writes it until io is released
+            long fileEnd;
+            synchronized (this) {
+                fileEnd = end - base;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileChannel tail = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long copied = 0;
+                while (mark + copied < fileEnd) {
+                    copied += in.transferTo(mark + copied, fileEnd - mark - copied, tail);
+                }
+                tail.force(true);
+            }
+            synchronized (this) {
+                fileOut.close();
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                open();
+                base += mark;
+            }
+            durable = Math.max(durable, end);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        write();
+        force();
+        synchronized (io) {
+            fileOut.close();
+        }
+    }
+
+    /**
+     * Replays every intact record of the log file. A torn or corrupt tail is truncated so that
+     * later appends continue from the last good record. Returns the number of records applied.
+     */
+    static int replay(File file, Handler handler) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                int crcValue;
+                try {
+                    in.readFully(payload);
+                    crcValue = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != crcValue) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), handler);
+                good += length + 8;
+                count++;
+            }
+        }
+        if (good < file.length()) {
+            EventLog.warn("log_tail_damaged", "file", file.getName(), "ignoredBytes", file.length() - good);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(good);
+            }
+        }
+        return count;
+    }
+
+    private static void apply(DataInputStream in, Handler handler) throws IOException {
+        byte op = in.readByte();
+        if (op == OP_ADD) {
+            handler.added(readCustomer(in));
+        } else if (op == OP_UPDATE) {
+            int id = in.readInt();
+            CustomerField field = CustomerField.values()[in.readByte()];
+            handler.updated(id, field, readValue(in, field));
+        } else if (op == OP_DELETE) {
+            handler.deleted(in.readInt());
+        } else {
+            throw new IOException("Unknown log record type " + op);
+        }
+    }
+
+    static void writeCustomer(DataOutputStream out, Customer c) throws IOException {
+        out.writeInt(c.getId());
+        writeString(out, c.getName());
+        writeString(out, c.getEmail());
+        out.writeByte(c.getSubscriptionType().ordinal());
+        out.writeLong(c.getRenewalDate().toEpochDay());
+        out.writeBoolean(c.isCanceled());
+        out.writeByte(c.getPaymentMethod() == null ? -1 : c.getPaymentMethod().ordinal());
+    }
+
+    static Customer readCustomer(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String name = readString(in);
+        String email = readString(in);
+        SubscriptionType type = SubscriptionType.values()[in.readByte()];
+        LocalDate renewalDate = LocalDate.ofEpochDay(in.readLong());
+        boolean canceled = in.readBoolean();
+        byte method = in.readByte();
+        return new Customer(id, name, email, type, renewalDate, canceled, method < 0 ? null : PaymentMethod.values()[method]);
+    }
+
+    static void writeValue(DataOutputStream out, CustomerField field, Object value) throws IOException {
+        switch (field) {
+            case NAME:
+            case EMAIL:
+                writeString(out, (String) value);
+                break;
+            case SUBSCRIPTION_TYPE:
+                out.writeByte(value == null ? -1 : ((SubscriptionType) value).ordinal());
+                break;
+            case RENEWAL_DATE:
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    out.writeLong(((LocalDate) value).toEpochDay());
+                }
+                break;
+            case CANCELED:
+                out.writeBoolean((Boolean) value);
+                break;
+            case PAYMENT_METHOD:
+                out.writeByte(value == null ? -1 : ((PaymentMethod) value).ordinal());
+                break;
+            default:
+                throw new IOException("Unsupported field " + field);
+        }
+    }
+
+    static Object readValue(DataInputStream in, CustomerField field) throws IOException {
+        switch (field) {
+            case NAME:
+            case EMAIL:
+                return readString(in);
+            case SUBSCRIPTION_TYPE: {
+                byte ordinal = in.readByte();
+                return ordinal < 0 ? null : SubscriptionType.values()[ordinal];
+            }
+            case RENEWAL_DATE:
+                return in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+            case CANCELED:
+                return in.readBoolean();
+            case PAYMENT_METHOD: {
+                byte ordinal = in.readByte();
+                return ordinal < 0 ? null : PaymentMethod.values()[ordinal];
+            }
+            default:
+                throw new IOException("Unsupported field " + field);
+        }
+    }
+
+    // Length-prefixed UTF-8: writeUTF cannot encode strings longer than 65535 bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(STRING_NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(STRING_UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte encoding = in.readByte();
+        if (encoding == STRING_NULL) {
+            return null;
+        }
+        if (encoding != STRING_UTF8) {
+            throw new IOException("Unknown string encoding " + encoding);
+        }
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package sub_project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The parallel loader cuts the file about every megabyte and moves each cut to just after the next
+ * '\n'; every row must come out once and intact wherever a cut falls, and in id order.
+ */
+class CsvLoaderTest {
+    // Files below 4 MB are cut every MIN_CHUNK bytes whatever the parallelism
+    private static final int CHUNK = 1 << 20;
+    private static final int ROWS = 30_000;
+    private static final String HEADER = "id,name,email,subscriptionType,renewalDate,canceled,paymentMethod";
+
+    @TempDir
+    Path dir;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final List<String> expected = new ArrayList<>();
+    private int nextId = 1;
+
+    @Test
+    void rowsAcrossChunkBoundariesAreParsedOnce() throws Exception {
+        line(HEADER, "\n");
+        rowEndingAt(CHUNK, "ends-on-the-cut", "\n");              // the first cut falls right after its '\n'
+        rowEndingAt(2 * CHUNK + 1, "crlf-split", "\r\n");         // the second between its '\r' and '\n'
+        rowWithNameAcross(3 * CHUNK, "J\u00fcrgen \u00d8rsted");  // the third inside the two bytes of the u-umlaut
+        approach(3 * CHUNK + CHUNK / 2);
+
+        CsvLoader.Result result = load();
+        assertTrue(result.chunks >= 4, "chunks: " + result.chunks);
+        assertEquals(expected, describe(result.customers));
+    }
+
+    @Test
+    void blankLinesAreSkippedAndRowsComeOutInIdOrder() throws Exception {
+        line(HEADER, "\r\n");
+        for (int id = ROWS; id >= 1; id--) {
+            line(rowText(id, "user" + id), id % 1000 == 0 ? "\n\n" : "\n");   // newest first
+        }
+        int legacy = ROWS + 3;                                                    // a FREE row
+        line(rowText(legacy, "legacy").replace(",null", ""), "\n");             // written before the payment method column
+        for (int id = 1; id <= ROWS; id++) {
+            expected.add(rowText(id, "user" + id));
+        }
+        expected.add(rowText(legacy, "legacy"));
+
+        CsvLoader.Result result = load();
+        assertTrue(result.chunks > 1, "chunks: " + result.chunks);
+        assertEquals(expected, describe(result.customers));
+    }
+
+    private CsvLoader.Result load() throws Exception {
+        File file = dir.resolve("customers.csv").toFile();
+        Files.write(file.toPath(), out.toByteArray());
+        return CsvLoader.load(file);
+    }
+
+    private void rowEndingAt(int end, String name, String ending) {
+        approach(end);
+        pad(end - bytes(rowText(nextId + 1, name) + ending));
+        row(name, ending);
+        assertEquals(end, out.size());
+    }
+
+    private void rowWithNameAcross(int cut, String name) {
+        approach(cut);
+        pad(cut - bytes((nextId + 1) + ",") - 2);
+        row(name, "\n");
+    }
+
+    // Writes ordinary rows, some with CRLF endings, until the next few hundred bytes reach offset
+    private void approach(int offset) {
+        while (out.size() + 400 < offset) {
+            row("user" + nextId, nextId % 7 == 0 ? "\r\n" : "\n");
+        }
+    }
+
+    // Writes one row whose name is padded so that the following row starts at byte start
+    private void pad(int start) {
+        int padding = start - out.size() - bytes(rowText(nextId, "") + "\n");
+        row("x".repeat(padding), "\n");
+        assertEquals(start, out.size());
+    }
+
+    private void row(String name, String ending) {
+        String text = rowText(nextId, name);
+        expected.add(text);
+        line(text, ending);
+        nextId++;
+    }
+
+    // The snapshot line of a customer, which is also how parsed customers are compared
+    private static String rowText(int id, String name) {
+        SubscriptionType type = SubscriptionType.values()[id % SubscriptionType.values().length];
+        return id + "," + name + ",u" + id + "@example.com," + type + "," + LocalDate.of(2030, 1, 1).plusDays(id % 365) + ","
+                + (id % 5 == 0) + "," + (type == SubscriptionType.FREE ? null : PaymentMethod.values()[id % PaymentMethod.values().length]);
+    }
+
+    private static int bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private void line(String text, String ending) {
+        byte[] bytes = (text + ending).getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static List<String> describe(List<Customer> customers) {
+        List<String> lines = new ArrayList<>(customers.size());
+        for (Customer c : customers) {
+            lines.add(c.getId() + "," + c.getName() + "," + c.getEmail() + "," + c.getSubscriptionType() + ","
+                    + c.getRenewalDate() + "," + c.isCanceled() + "," + c.getPaymentMethod());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,137 @@
+package sub_project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Merging skips emails that are already stored or came earlier, compared trimmed and
+ * case-insensitively, and lets the earlier row win even when it reaches the merge stage last.
+ */
+class ImportPipelineTest {
+    private static final int FILLER = 6 * ImportPipeline.BATCH_SIZE;
+    private static final int FIRST_ID = 1000;
+
+    @TempDir
+    Path dir;
+
+    private final Map<Integer, Customer> merged = new HashMap<>();
+    private final AtomicInteger ids = new AtomicInteger(FIRST_ID);
+
+    @Test
+    void duplicatesAreSkippedAndEarlierRowsWin() throws Exception {
+        List<String> first = new ArrayList<>();
+        for (int i = 0; i < FILLER; i++) {
+            first.add(row("a" + i, "a" + i + "@example.com"));
+        }
+        // Last in a large file, so this row usually reaches the merge stage after its duplicate in the
+        // second file and has to overwrite the customer merged from there
+        first.add(row("from-first", " X@Example.com"));
+        first.add(row("stored", "stored@example.com"));
+        first.add(row("repeat", "a1@example.com"));
+        String a = write("a.csv", first);
+        String b = write("b.csv", Arrays.asList(
+                row("from-second", "x@example.com"),
+                row("stored-again", "STORED@example.com"),
+                row("b", "b@example.com"),
+                "7,bad,bad@example.com,PLATINUM,2030-01-01,false,CARD"));
+
+        // A parser per file, and queues short enough that the large file waits for the merge stage
+        System.setProperty("subscription.merge.threads", "2");
+        System.setProperty("subscription.merge.queueBatches", "1");
+        ImportPipeline pipeline;
+        try {
+            pipeline = new ImportPipeline(ids::getAndIncrement, this::apply);
+        } finally {
+            System.clearProperty("subscription.merge.threads");
+            System.clearProperty("subscription.merge.queueBatches");
+        }
+        MergeResult result = pipeline.run(Arrays.asList(a, b), stored("stored@example.com"));
+
+        assertEquals(FILLER + 7, result.getRows());
+        assertEquals(1, result.getInvalid());
+        assertEquals(FILLER + 2, result.getMerged());
+        assertEquals(4, result.getDuplicates()); // one of the two x rows, both stored rows and the repeat
+        assertEquals(FILLER + 2, merged.size());
+        assertEquals("from-first", byEmail("x@example.com").getName());
+        assertEquals("a1", byEmail("a1@example.com").getName());
+        assertEquals("b", byEmail("b@example.com").getName());
+        Set<Integer> expectedIds = new HashSet<>();
+        for (int id = FIRST_ID; id < FIRST_ID + FILLER + 2; id++) {
+            expectedIds.add(id);
+        }
+        assertEquals(expectedIds, merged.keySet());
+        assertEquals(1, result.getErrors().size());
+        assertTrue(result.getErrors().get(0).startsWith(b + " row 5"), result.getErrors().get(0));
+    }
+
+    @Test
+    void unreadableFileIsReportedAndTheOthersMerged() throws Exception {
+        String good = write("good.csv", Arrays.asList(row("c", "c@example.com")));
+        Path brokenFile = dir.resolve("broken.csv");
+        Files.write(brokenFile, new byte[] {'1', ',', (byte) 0xc3, '(', '\n'}); // not UTF-8
+        String broken = brokenFile.toString();
+
+        MergeResult result = new ImportPipeline(ids::getAndIncrement, this::apply)
+                .run(Arrays.asList(broken, good), stored());
+
+        assertEquals(1, result.getMerged());
+        assertEquals(Arrays.asList(broken), new ArrayList<>(result.getFailedFiles().keySet()));
+        assertEquals("c", byEmail("c@example.com").getName());
+    }
+
+    // A target that keeps the merged customers by id, as the live store would
+    private void apply(List<Customer> added, List<Customer> corrections) {
+        for (Customer customer : added) {
+            assertEquals(null, merged.put(customer.getId(), customer), "id handed out twice");
+        }
+        for (Customer customer : corrections) {
+            assertTrue(merged.containsKey(customer.getId()), "correction of an unknown id");
+            merged.put(customer.getId(), customer);
+        }
+    }
+
+    private Customer byEmail(String email) {
+        for (Customer customer : merged.values()) {
+            if (customer.getEmail().equalsIgnoreCase(email)) {
+                return customer;
+            }
+        }
+        throw new AssertionError("no customer with email " + email);
+    }
+
+    private static List<Customer> stored(String... emails) {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < emails.length; i++) {
+            customers.add(new Customer(i + 1, "stored" + i, emails[i], SubscriptionType.FREE, LocalDate.of(2030, 1, 1), false, null));
+        }
+        return customers;
+    }
+
+    private static String row(String name, String email) {
+        return "1," + name + "," + email + ",GOLD,2030-01-01,false,CARD";
+    }
+
+    private String write(String name, List<String> rows) throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("id,name,email,subscriptionType,renewalDate,canceled,paymentMethod");
+        lines.addAll(rows);
+        Path file = dir.resolve(name);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file.toString();
+    }
+}
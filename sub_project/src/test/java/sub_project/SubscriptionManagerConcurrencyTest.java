@@ -0,0 +1,98 @@
+package sub_project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Many threads adding customers at once: every accepted add gets its own id with no gaps, none is
+ * lost, in memory or across a restart, and no subscription type is granted more than its limit.
+ */
+class SubscriptionManagerConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int ADDS_PER_THREAD = 200;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentAddsKeepIdsDenseAndStayWithinLimits() throws Exception {
+        String fileName = dir.resolve("customers.csv").toString();
+        SubscriptionManager manager = new SubscriptionManager(fileName);
+        manager.awaitLoaded();
+        manager.setSubscriptionLimit(SubscriptionType.PREMIUM, 700);
+        SubscriptionType[] types = SubscriptionType.values();
+        int[] limits = new int[types.length];
+        for (SubscriptionType type : types) {
+            limits[type.ordinal()] = manager.getSubscriptionLimit(type);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<BulkResult>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                List<BulkResult> results = new ArrayList<>();
+                for (int i = 0; i < ADDS_PER_THREAD; i++) {
+                    SubscriptionType type = types[(thread + i) % types.length];
+                    results.add(manager.addCustomer("user" + thread + "_" + i, "user" + thread + "_" + i + "@example.com",
+                            type, LocalDate.now().plusMonths(1), type == SubscriptionType.FREE ? null : PaymentMethod.CARD));
+                }
+                return results;
+            }));
+        }
+        start.countDown();
+        List<Integer> ids = new ArrayList<>();
+        int[] attempted = new int[types.length];
+        int[] accepted = new int[types.length];
+        for (int t = 0; t < THREADS; t++) {
+            List<BulkResult> results = futures.get(t).get();
+            for (int i = 0; i < results.size(); i++) {
+                int type = types[(t + i) % types.length].ordinal();
+                attempted[type]++;
+                if (results.get(i).getOutcome(0) == BulkResult.Outcome.ACCEPTED) {
+                    accepted[type]++;
+                    ids.add(results.get(i).getId(0));
+                }
+            }
+        }
+        pool.shutdown();
+
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1, (int) ids.get(i), "ids must be unique and dense");
+        }
+        for (SubscriptionType type : types) {
+            int expected = Math.min(attempted[type.ordinal()], limits[type.ordinal()]);
+            assertEquals(expected, accepted[type.ordinal()], "grants for " + type);
+            assertTrue(manager.getSubscriptionUsage(type) <= limits[type.ordinal()], "usage of " + type + " over its limit");
+            assertEquals(accepted[type.ordinal()], manager.getCustomersByType(type).size(), "stored " + type + " customers");
+        }
+        assertEquals(ids.size(), manager.getAllCustomers().size());
+        manager.close();
+
+        SubscriptionManager reopened = new SubscriptionManager(fileName);
+        try {
+            reopened.awaitLoaded();
+            assertEquals(ids.size(), reopened.getAllCustomers().size(), "customers after a restart");
+            for (int id : ids) {
+                assertTrue(reopened.getCustomerById(id) != null, "customer " + id + " lost by the restart");
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package sub_project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Sliding-window limits on a fake clock: the defaults of 30 days per type and 24 hours per customer apply. */
+class SubscriptionQuotaTest {
+    private static final long DAY = TimeUnit.DAYS.toMicros(1);
+    private static final long HOUR = TimeUnit.HOURS.toMicros(1);
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong now = new AtomicLong(20_000 * DAY);
+
+    @Test
+    void usageDrainsContinuouslyInsteadOfResetting() {
+        SubscriptionQuota quota = new SubscriptionQuota(Map.of(SubscriptionType.PREMIUM, 3), now::get);
+        assertTrue(quota.tryAcquire(SubscriptionType.PREMIUM));
+        assertTrue(quota.tryAcquire(SubscriptionType.PREMIUM));
+        assertTrue(quota.tryAcquire(SubscriptionType.PREMIUM));
+        assertFalse(quota.tryAcquire(SubscriptionType.PREMIUM));
+        assertEquals(3, quota.getUsage(SubscriptionType.PREMIUM));
+
+        now.addAndGet(10 * DAY - 1); // a limit of 3 per 30 days frees one grant every 10 days
+        assertFalse(quota.tryAcquire(SubscriptionType.PREMIUM));
+        now.addAndGet(1);
+        assertEquals(2, quota.getUsage(SubscriptionType.PREMIUM));
+        assertTrue(quota.tryAcquire(SubscriptionType.PREMIUM));
+        assertFalse(quota.tryAcquire(SubscriptionType.PREMIUM));
+
+        now.addAndGet(30 * DAY);
+        assertEquals(0, quota.getUsage(SubscriptionType.PREMIUM));
+        assertTrue(quota.tryAcquire(SubscriptionType.FREE), "types without a limit are not limited");
+    }
+
+    @Test
+    void batchesGetWhatFitsAndReleasesGiveItBack() {
+        SubscriptionQuota quota = new SubscriptionQuota(Map.of(SubscriptionType.GOLD, 3), now::get);
+        assertEquals(3, quota.tryAcquire(SubscriptionType.GOLD, 5));
+        quota.release(SubscriptionType.GOLD, 2);
+        assertEquals(1, quota.getUsage(SubscriptionType.GOLD));
+        assertEquals(2, quota.tryAcquire(SubscriptionType.GOLD, 5));
+        assertEquals(0, quota.tryAcquire(SubscriptionType.GOLD, 1));
+    }
+
+    @Test
+    void changedLimitsKeepTheGrantsInUse() {
+        SubscriptionQuota quota = new SubscriptionQuota(Map.of(SubscriptionType.GOLD, 10), now::get);
+        assertEquals(4, quota.tryAcquire(SubscriptionType.GOLD, 4));
+        quota.setLimit(SubscriptionType.GOLD, 5);
+        assertEquals(4, quota.getUsage(SubscriptionType.GOLD));
+        assertEquals(1, quota.tryAcquire(SubscriptionType.GOLD, 5));
+        quota.setLimit(SubscriptionType.GOLD, 0);
+        assertFalse(quota.tryAcquire(SubscriptionType.GOLD));
+    }
+
+    @Test
+    void customersAreLimitedIndependently() {
+        SubscriptionQuota quota = new SubscriptionQuota(Map.of(), now::get);
+        quota.setCustomerLimit(2);
+        assertTrue(quota.tryAcquireCustomer("a@example.com"));
+        assertTrue(quota.tryAcquireCustomer("a@example.com"));
+        assertFalse(quota.tryAcquireCustomer("a@example.com"));
+        assertTrue(quota.tryAcquireCustomer("b@example.com"));
+
+        quota.releaseCustomer("a@example.com");
+        assertTrue(quota.tryAcquireCustomer("a@example.com"));
+        now.addAndGet(12 * HOUR); // 2 per 24 hours
+        assertTrue(quota.tryAcquireCustomer("a@example.com"));
+        assertFalse(quota.tryAcquireCustomer("a@example.com"));
+    }
+
+    @Test
+    void saveAndLoadRestoreLimitsAndUsage() throws Exception {
+        File file = dir.resolve("customers.csv.quota").toFile();
+        SubscriptionQuota quota = new SubscriptionQuota(Map.of(SubscriptionType.PREMIUM, 10), now::get);
+        quota.setLimit(SubscriptionType.GOLD, 4);
+        quota.setCustomerLimit(3);
+        assertEquals(3, quota.tryAcquire(SubscriptionType.GOLD, 3));
+        assertTrue(quota.tryAcquireCustomer("a@example.com"));
+        assertTrue(quota.tryAcquireCustomer("a@example.com"));
+        quota.save(file);
+
+        now.addAndGet(HOUR); // downtime counts as refill time
+        SubscriptionQuota restored = new SubscriptionQuota(Map.of(SubscriptionType.PREMIUM, 1), now::get);
+        restored.load(file);
+        assertEquals(10, restored.getLimit(SubscriptionType.PREMIUM));
+        assertEquals(4, restored.getLimit(SubscriptionType.GOLD));
+        assertEquals(3, restored.getCustomerLimit());
+        assertEquals(3, restored.getUsage(SubscriptionType.GOLD));
+        assertEquals(1, restored.tryAcquire(SubscriptionType.GOLD, 2));
+        assertTrue(restored.tryAcquireCustomer("a@example.com"));
+        assertFalse(restored.tryAcquireCustomer("a@example.com"));
+    }
+}
@@ -0,0 +1,111 @@
+package sub_project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** subscriptions_and_usernames.csv follows adds, updates and deletes, across restarts. */
+class UsernamesViewTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void fileFollowsAddsUpdatesAndDeletes() throws Exception {
+        String fileName = dir.resolve("customers.csv").toString();
+        SubscriptionManager manager = new SubscriptionManager(fileName);
+        manager.awaitLoaded();
+        add(manager, "alice", SubscriptionType.FREE);
+        add(manager, "bob", SubscriptionType.GOLD);
+        add(manager, "carol", SubscriptionType.PREMIUM);
+        add(manager, "dave", SubscriptionType.FREE);
+        List<String> expected = expectedLines(manager);
+        manager.close();
+        assertFile(expected);
+
+        manager = new SubscriptionManager(fileName);
+        manager.awaitLoaded();
+        manager.getCustomerById(2).setName("BOB");                            // same length, patched in place
+        manager.getCustomerById(3).setName("caroline");                       // longer, rewritten
+        manager.getCustomerById(4).setSubscriptionType(SubscriptionType.GOLD);
+        manager.deleteCustomer(1);
+        add(manager, "erin", SubscriptionType.PREMIUM);
+        manager.saveSubscriptionsAndUsernames();
+        assertFile(expectedLines(manager));
+
+        add(manager, "frank", SubscriptionType.FREE);                         // appended
+        manager.getCustomerById(5).setName("ERIN");
+        manager.deleteCustomer(4);
+        expected = expectedLines(manager);
+        manager.close();
+        assertFile(expected);
+    }
+
+    @Test
+    void staleFileIsRewrittenInTheBackground() throws Exception {
+        System.setProperty("subscription.views.flushMs", "10");
+        System.setProperty("subscription.views.rewriteSeconds", "0");
+        SubscriptionManager manager;
+        try {
+            manager = new SubscriptionManager(dir.resolve("customers.csv").toString());
+        } finally {
+            System.clearProperty("subscription.views.flushMs");
+            System.clearProperty("subscription.views.rewriteSeconds");
+        }
+        try {
+            manager.awaitLoaded();
+            add(manager, "alice", SubscriptionType.FREE);
+            add(manager, "bob", SubscriptionType.GOLD);
+            manager.deleteCustomer(1);
+            List<String> expected = expectedLines(manager);
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (!expected.equals(fileLines()) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFile(expected);
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static void add(SubscriptionManager manager, String name, SubscriptionType type) {
+        BulkResult result = manager.addCustomer(name, name + "@example.com", type, LocalDate.now().plusMonths(1),
+                type == SubscriptionType.FREE ? null : PaymentMethod.PAYPAL);
+        assertEquals(BulkResult.Outcome.ACCEPTED, result.getOutcome(0));
+    }
+
+    // Header first, then one line per customer; the order of the lines is not part of the format
+    private static List<String> expectedLines(SubscriptionManager manager) {
+        List<String> lines = new ArrayList<>();
+        for (Customer customer : manager.getAllCustomers()) {
+            lines.add(customer.getName() + "," + customer.getSubscriptionType());
+        }
+        Collections.sort(lines);
+        lines.add(0, "Username,SubscriptionType");
+        return lines;
+    }
+
+    private List<String> fileLines() throws IOException {
+        Path file = dir.resolve("subscriptions_and_usernames.csv");
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+        if (!lines.isEmpty()) {
+            Collections.sort(lines.subList(1, lines.size()));
+        }
+        return lines;
+    }
+
+    private void assertFile(List<String> expected) throws IOException {
+        assertEquals(expected, fileLines());
+    }
+}
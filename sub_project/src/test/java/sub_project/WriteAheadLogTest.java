@@ -0,0 +1,117 @@
+package sub_project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Replay applies every intact record in order and cuts off a damaged tail; compaction keeps what follows its mark. */
+class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInOrder() throws Exception {
+        File file = dir.resolve("customers.csv.wal").toFile();
+        try (WriteAheadLog log = open(file)) {
+            log.appendAdd(customer(1, "alice"));
+            log.appendUpdate(1, CustomerField.NAME, "Alice");
+            log.appendUpdate(1, CustomerField.RENEWAL_DATE, LocalDate.of(2030, 1, 31));
+            log.appendDelete(1);
+        }
+        assertEquals(Arrays.asList("add 1 alice", "update 1 NAME Alice", "update 1 RENEWAL_DATE 2030-01-31", "delete 1"),
+                replay(file));
+    }
+
+    @Test
+    void tornTailIsCutOffAndAppendsContinueAfterIt() throws Exception {
+        File file = dir.resolve("customers.csv.wal").toFile();
+        long intact;
+        try (WriteAheadLog log = open(file)) {
+            log.appendAdd(customer(1, "alice"));
+            log.appendAdd(customer(2, "bob"));
+            intact = log.position();
+            log.appendAdd(customer(3, "carol"));
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 5)); // crash in the middle of the last record
+
+        assertEquals(Arrays.asList("add 1 alice", "add 2 bob"), replay(file));
+        assertEquals(intact, file.length());
+
+        try (WriteAheadLog log = open(file)) {
+            log.appendAdd(customer(4, "dave"));
+        }
+        assertEquals(Arrays.asList("add 1 alice", "add 2 bob", "add 4 dave"), replay(file));
+    }
+
+    @Test
+    void corruptRecordEndsReplay() throws Exception {
+        File file = dir.resolve("customers.csv.wal").toFile();
+        long first;
+        try (WriteAheadLog log = open(file)) {
+            log.appendAdd(customer(1, "alice"));
+            first = log.position();
+            log.appendAdd(customer(2, "bob"));
+            log.appendAdd(customer(3, "carol"));
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[(int) first + 6] ^= 0x40; // inside the payload of the second record
+        Files.write(file.toPath(), bytes);
+
+        assertEquals(Arrays.asList("add 1 alice"), replay(file));
+        assertEquals(first, file.length());
+    }
+
+    @Test
+    void truncateBeforeKeepsRecordsAfterTheMark() throws Exception {
+        File file = dir.resolve("customers.csv.wal").toFile();
+        try (WriteAheadLog log = open(file)) {
+            log.appendAdd(customer(1, "alice"));
+            log.appendAdd(customer(2, "bob"));
+            long mark = log.position(); // what a snapshot written now would contain
+            log.appendUpdate(2, CustomerField.CANCELED, true);
+            log.truncateBefore(mark);
+            assertEquals(file.length(), log.position());
+            log.appendDelete(1);
+        }
+        assertEquals(Arrays.asList("update 2 CANCELED true", "delete 1"), replay(file));
+    }
+
+    private static WriteAheadLog open(File file) throws IOException {
+        return new WriteAheadLog(file);
+    }
+
+    private static Customer customer(int id, String name) {
+        return new Customer(id, name, name + "@example.com", SubscriptionType.GOLD, LocalDate.of(2030, 1, 1), false, PaymentMethod.CARD);
+    }
+
+    private static List<String> replay(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        WriteAheadLog.replay(file, new WriteAheadLog.Handler() {
+            @Override
+            public void added(Customer customer) {
+                records.add("add " + customer.getId() + " " + customer.getName());
+            }
+
+            @Override
+            public void updated(int id, CustomerField field, Object value) {
+                records.add("update " + id + " " + field + " " + value);
+            }
+
+            @Override
+            public void deleted(int id) {
+                records.add("delete " + id);
+            }
+        });
+        return records;
+    }
+}